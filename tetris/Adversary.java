@@ -0,0 +1,136 @@
+// Adversary.java
+package tetris;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ Works out which pieces are worst for the player on a board.
+ Each distinct piece is rated once, by the best play the brain can
+ find for it over all its rotations -- what the brain's bestMove()
+ would score -- and the pieces are ranked worst first. A piece that
+ cannot be played at all is the worst there is, and rates infinity.
+
+ <p>
+ The pieces are worked on in parallel on the common fork-join pool:
+ each task copies the board, generates the plays of its piece with
+ the brain's generateMoves() and rates them, so the caller's thread
+ only waits. The brain's generateMoves() and rateBoard() must be safe
+ to call from several threads at once, as DefaultBrain's are.
+*/
+public class Adversary {
+	private final DefaultBrain brain;
+
+	/**
+	 Creates an adversary that plays the pieces the way the given brain would.
+	*/
+	public Adversary(DefaultBrain brain) {
+		this.brain = brain;
+	}
+
+
+	/**
+	 Rates each of the given pieces (first rotations, as from
+	 Piece.getPieces()) on the board and returns them ranked worst
+	 first. Ties keep the order of the pieces array.
+	 The board should be in the committed state.
+	*/
+	public Ranking rank(Board board, Piece[] pieces, int limitHeight) {
+		board.commit();
+		boolean tracked = board.isFeatureTracking();
+		board.setFeatureTracking(true);
+		try {
+			final double[] scores = new double[pieces.length];
+			List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+			for (int i=0; i<pieces.length; ++i) {
+				final Piece piece = pieces[i];
+				final int index = i;
+				tasks.add(new RecursiveAction() {
+					protected void compute() {
+						Board copy = new Board(board);
+						MoveList plays = new MoveList();
+						brain.generateMoves(copy, piece, limitHeight, plays);
+						scores[index] = rate(copy, plays);
+					}
+				});
+			}
+			ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+			return new Ranking(pieces, scores);
+		}
+		finally {
+			board.setFeatureTracking(tracked);	// the caller's setting
+		}
+	}
+
+
+	/**
+	 * the brain's best score over the plays, infinity if there are none
+	 * */
+	private double rate(Board board, MoveList plays) {
+		double best = Double.POSITIVE_INFINITY;
+		for (int i=0; i<plays.size(); ++i) {
+			double score = brain.ratePlay(board, plays.getPiece(i), plays.getX(i), plays.getY(i));
+			if (score >= 1e20) score = Double.POSITIVE_INFINITY;	// could not be placed
+			best = Math.min(best, score);
+		}
+		return best;
+	}
+
+
+	/**
+	 Pieces ranked worst for the player first, with the score of the
+	 best play for each -- higher is worse, as with rateBoard().
+	*/
+	public static class Ranking {
+		private final Piece[] pieces;
+		private final double[] scores;
+
+		Ranking(Piece[] pieces, double[] scores) {
+			Integer[] order = new Integer[pieces.length];
+			for (int i=0; i<order.length; ++i) order[i] = i;
+			// a stable sort, so ties stay in piece order
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return Double.compare(scores[b], scores[a]);
+				}
+			});
+			this.pieces = new Piece[pieces.length];
+			this.scores = new double[pieces.length];
+			for (int i=0; i<order.length; ++i) {
+				this.pieces[i] = pieces[order[i]];
+				this.scores[i] = scores[order[i]];
+			}
+		}
+
+		public int size() {
+			return pieces.length;
+		}
+
+		/**
+		 Returns the piece at the given rank, 0 being the worst for the player.
+		*/
+		public Piece getPiece(int rank) {
+			return pieces[rank];
+		}
+
+		/**
+		 Returns the best score the brain finds for the piece at the
+		 given rank, or infinity if it cannot be played.
+		*/
+		public double getScore(int rank) {
+			return scores[rank];
+		}
+
+		public Piece getWorst() {
+			return pieces[0];
+		}
+
+		public Piece getBest() {
+			return pieces[pieces.length - 1];
+		}
+	}
+}
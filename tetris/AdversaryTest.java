@@ -0,0 +1,47 @@
+package tetris;
+
+import static org.junit.Assert.*;
+import java.util.*;
+
+import org.junit.*;
+
+/*
+  Unit test for Adversary -- the ranking must agree with bestMove().
+ */
+public class AdversaryTest {
+
+	// Each piece is scored as bestMove() would score it, worst first
+	@Test
+	public void testRanking() {
+		DefaultBrain brain = new DefaultBrain();
+		Adversary adversary = new Adversary(brain);
+		Piece[] pieces = Piece.getPieces();
+		GameEngine engine = new GameEngine(10, 20, 4);
+		engine.setPieceLimit(30);
+		engine.startGame(new Random(5));
+		Brain.Move move = new Brain.Move();
+		while (engine.isGameOn()) {
+			Board board = engine.getBoard();
+			board.undo();
+			String before = board.toString();
+			Adversary.Ranking ranking = adversary.rank(board, pieces, 20);
+			assertEquals(before, board.toString());
+			assertEquals(pieces.length, ranking.size());
+
+			Set<Piece> seen = new HashSet<Piece>();
+			for (int rank=0; rank<ranking.size(); ++rank) {
+				Piece piece = ranking.getPiece(rank);
+				assertTrue(seen.add(piece));
+				if (rank > 0) assertTrue(ranking.getScore(rank) <= ranking.getScore(rank - 1));
+				Brain.Move best = brain.bestMove(board, piece, 20, move);
+				if (best == null) assertEquals(Double.POSITIVE_INFINITY, ranking.getScore(rank), 0);
+				else assertEquals(best.score, ranking.getScore(rank), 0);
+			}
+			assertSame(ranking.getPiece(0), ranking.getWorst());
+			assertSame(ranking.getPiece(pieces.length - 1), ranking.getBest());
+
+			brain.bestMove(board, engine.getCurrentPiece(), 20, move);
+			engine.playMove(move.piece, move.x);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+// AnytimeBrain.java
+
+package tetris;
+
+/**
+ A LookaheadBrain that searches as deep as a time budget allows.
+ Each bestMove() first finds DefaultBrain's answer, which is always
+ ready, then deepens iteratively: the beam search one piece deeper,
+ then two, and so on up to maxDepth, then with the beam twice as
+ wide, and again, up to maxBeamWidth. Pieces past the end of the
+ preview, or with no preview at all, are looked at as chance plies
+ over setPieces() -- see LookaheadBrain -- so the budget is used
+ whether the game shows what comes next or not.
+ When the budget runs out the search in progress is dropped and the
+ answer of the deepest finished one is played -- so the brain plays
+ better the more time it is given, without ever missing a deadline
+ by more than one step of the search.
+
+ getReachedDepth(), getReachedBeamWidth() and getNodes() tell how
+ far the last search got. Like LookaheadBrain, this is not thread safe.
+*/
+public class AnytimeBrain extends LookaheadBrain {
+    private long budget;
+    private int maxDepth;
+    private int maxBeamWidth;
+
+    // how far the last bestMove() got
+    private int reachedDepth;
+    private int reachedBeamWidth;
+    private long totalNodes;
+
+    private final Brain.Move trial = new Brain.Move();
+
+    /**
+     Creates a brain that spends up to the given number of
+     nanoseconds a move, with a beam of 10 up to depth 2 and
+     then widening up to 160.
+    */
+    public AnytimeBrain(long budget) {
+        this(budget, 2, 10, 160);
+    }
+
+    public AnytimeBrain(long budget, int maxDepth, int beamWidth, int maxBeamWidth) {
+        super(maxDepth, beamWidth);
+        this.budget = budget;
+        this.maxDepth = maxDepth;
+        this.maxBeamWidth = maxBeamWidth;
+    }
+
+
+    /**
+     Sets the time bestMove() may take, in nanoseconds.
+    */
+    public void setBudget(long budget) {
+        this.budget = budget;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+
+    /**
+     Searches deeper and wider until the budget runs out.
+     See the Brain interface for details.
+    */
+    public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight, Brain.Move move) {
+        final long deadline = System.nanoTime() + budget;
+        final int known = preview == null ? 0 : preview.length;
+
+        // depth 0 is DefaultBrain's search: cheap, and always finished
+        move = search(board, piece, preview, 0, 0, 1, limitHeight, 0, move);
+        totalNodes = super.getNodes();
+        reachedDepth = 0;
+        reachedBeamWidth = 1;
+        if (move == null) return(null);
+
+        int depth = 1;
+        int width = getBeamWidth();
+        while (depth <= maxDepth && width <= maxBeamWidth) {
+            // the preview pieces first, then chance plies for the rest
+            int previewDepth = Math.min(depth, known);
+            Brain.Move found = search(board, piece, preview, previewDepth, depth - previewDepth, width,
+                    limitHeight, deadline, trial);
+            totalNodes += super.getNodes();
+            if (isTimedOut()) break;
+            if (found != null) {
+                move.x = found.x;
+                move.y = found.y;
+                move.piece = found.piece;
+                move.score = found.score;
+            }
+            reachedDepth = depth;
+            reachedBeamWidth = width;
+            // deeper first, then wider
+            if (depth < maxDepth) depth++;
+            else width *= 2;
+        }
+        return(move);
+    }
+
+
+    /**
+     Returns the depth, in pieces after the current one, of the
+     deepest search the last bestMove() finished, 0 for
+     DefaultBrain's alone.
+    */
+    public int getReachedDepth() {
+        return reachedDepth;
+    }
+
+    /**
+     Returns the beam width of the deepest search the last
+     bestMove() finished.
+    */
+    public int getReachedBeamWidth() {
+        return reachedBeamWidth;
+    }
+
+    /**
+     Returns how many plays the last bestMove() rated, over all its searches.
+    */
+    public long getNodes() {
+        return totalNodes;
+    }
+}
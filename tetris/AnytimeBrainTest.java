@@ -0,0 +1,76 @@
+package tetris;
+
+import static org.junit.Assert.*;
+import java.util.*;
+
+import org.junit.*;
+
+/*
+  Unit test for AnytimeBrain -- deeper with more time, never without a move.
+ */
+public class AnytimeBrainTest {
+	private GameEngine engine;
+
+	@Before
+	public void setUp() {
+		engine = new GameEngine(10, 20, 4);
+		engine.setPreviewSize(2);
+		engine.startGame(new Random(2));
+		engine.getBoard().undo();
+	}
+
+	// With no time it still gives DefaultBrain's move
+	@Test
+	public void testNoTime() {
+		AnytimeBrain brain = new AnytimeBrain(0);
+		Board board = engine.getBoard();
+		Brain.Move move = brain.bestMove(board, engine.getCurrentPiece(), engine.getPreview(), 20, null);
+		SameMoves.assertSameMove(new DefaultBrain().bestMove(board, engine.getCurrentPiece(), 20, null), move, 0);
+		assertEquals(0, brain.getReachedDepth());
+		assertTrue(brain.getNodes() > 0);
+		assertEquals(0, board.getMarkDepth());
+	}
+
+	// With plenty of time it goes through the preview and widens the beam
+	@Test
+	public void testPlentyOfTime() {
+		AnytimeBrain brain = new AnytimeBrain(10000000000L, 2, 10, 40);
+		Board board = engine.getBoard();
+		String before = board.toString();
+		Brain.Move move = brain.bestMove(board, engine.getCurrentPiece(), engine.getPreview(), 20, null);
+		assertEquals(before, board.toString());
+		assertEquals(2, brain.getReachedDepth());
+		assertEquals(40, brain.getReachedBeamWidth());
+
+		// the same as the lookahead brain with that beam
+		SameMoves.assertSameMove(new LookaheadBrain(2, 40).bestMove(board, engine.getCurrentPiece(),
+				engine.getPreview(), 20, null), move, 0);
+	}
+
+	// With no preview it still looks ahead, averaging over the pieces that may come
+	@Test
+	public void testNoPreview() {
+		AnytimeBrain brain = new AnytimeBrain(10000000000L, 2, 4, 4);
+		Board board = engine.getBoard();
+		String before = board.toString();
+		Brain.Move move = brain.bestMove(board, engine.getCurrentPiece(), new Piece[0], 20, null);
+		assertNotNull(move);
+		assertEquals(2, brain.getReachedDepth());
+		assertEquals(before, board.toString());
+		assertEquals(0, board.getMarkDepth());
+		assertTrue(brain.getNodes() > 1000);
+	}
+
+	// A tight budget is kept to within a step of the search
+	@Test
+	public void testDeadline() {
+		AnytimeBrain brain = new AnytimeBrain(200000, 6, 200, 200);
+		Piece[] preview = new Piece[6];
+		Arrays.fill(preview, Piece.getPieces()[Piece.PYRAMID]);
+		long start = System.nanoTime();
+		assertNotNull(brain.bestMove(engine.getBoard(), engine.getCurrentPiece(), preview, 20, null));
+		assertTrue(System.nanoTime() - start < 200000000L);
+		assertTrue(brain.getReachedDepth() < 6);
+		assertEquals(0, engine.getBoard().getMarkDepth());
+	}
+}
@@ -0,0 +1,271 @@
+// BatchSimulator.java
+package tetris;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ Plays many seeded brain-vs-random-pieces games headless, spread over
+ all the cores, and reports how the brain did: pieces per second, rows,
+ the spread of scores and of game lengths.
+ Game i is played with new Random(seed + i), so a run is repeatable
+ and does not depend on the number of threads -- good for catching
+ brain regressions on a large fixed sample.
+
+ <pre>
+ java tetris.BatchSimulator -games 10000 -seed 0 -brain tetris.DefaultBrain
+ </pre>
+ Options: -games N, -seed S, -limit PIECES (0 for no limit),
+ -threads T, -brain CLASS, -pieces SHAPE-FILE, -csv FILE for one line per game.
+*/
+public class BatchSimulator {
+	private String brainClass = "tetris.DefaultBrain";
+	private Piece[] pieces = Piece.getPieces();
+	private int games = 1000;
+	private long seed = 0;
+	private int pieceLimit = 0;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	public void setBrainClass(String brainClass) {
+		this.brainClass = brainClass;
+	}
+
+	public void setPieces(Piece[] pieces) {
+		this.pieces = pieces;
+	}
+
+	public void setGames(int games) {
+		if (games < 1) throw new RuntimeException("Need at least one game, not " + games);
+		this.games = games;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 Ends every game after this many pieces, or never for 0.
+	*/
+	public void setPieceLimit(int pieceLimit) {
+		this.pieceLimit = pieceLimit;
+	}
+
+	public void setThreads(int threads) {
+		if (threads < 1) throw new RuntimeException("Need at least one thread, not " + threads);
+		this.threads = threads;
+	}
+
+
+	/**
+	 Plays all the games and returns their results.
+	*/
+	public Report run() {
+		final Report report = new Report(games);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		long start = System.nanoTime();
+		try {
+			pool.invoke(new Games(report, 0, games));
+		}
+		finally {
+			pool.shutdown();
+		}
+		report.nanos = System.nanoTime() - start;
+		return report;
+	}
+
+
+	// games below this many are played by one task rather than split further
+	private static final int GAMES_PER_TASK = 4;
+
+	/**
+	 * plays games [from, to), splitting the range in half
+	 * until it is small enough
+	 * */
+	private class Games extends RecursiveAction {
+		private final Report report;
+		private final int from, to;
+
+		Games(Report report, int from, int to) {
+			this.report = report;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (to - from <= GAMES_PER_TASK) {
+				GameEngine engine = new GameEngine(JTetris.WIDTH, JTetris.HEIGHT, JTetris.TOP_SPACE);
+				engine.setPieces(pieces);
+				engine.setPieceLimit(pieceLimit);
+				Brain brain = newBrain();
+				Brain.Move move = new Brain.Move();
+				for (int game=from; game<to; ++game) {
+					engine.startGame(new Random(seed + game));
+					engine.playGame(brain, move);
+					report.add(game, engine);
+				}
+			}
+			else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Games(report, from, middle), new Games(report, middle, to));
+			}
+		}
+	}
+
+
+	private Brain newBrain() {
+		try {
+			return (Brain) Class.forName(brainClass).getDeclaredConstructor().newInstance();
+		}
+		catch (Exception e) {
+			throw new RuntimeException("Could not make a brain of class " + brainClass, e);
+		}
+	}
+
+
+	/**
+	 The results of a run. Totals are gathered with lock-free adders
+	 while the games play; each game also writes its own slot of the
+	 per-game arrays, so nothing is ever locked.
+	*/
+	public static class Report {
+		private final LongAdder pieces = new LongAdder();
+		private final LongAdder rows = new LongAdder();
+		private final LongAdder score = new LongAdder();
+		private final LongAccumulator longest = new LongAccumulator(Math::max, 0);
+		private final int[] gamePieces, gameRows, gameScores;
+		private long nanos;
+
+		Report(int games) {
+			gamePieces = new int[games];
+			gameRows = new int[games];
+			gameScores = new int[games];
+		}
+
+		void add(int game, GameEngine engine) {
+			int played = engine.getPlacedCount();
+			gamePieces[game] = played;
+			gameRows[game] = (int) engine.getRowsCleared();
+			gameScores[game] = engine.getScore();
+			pieces.add(played);
+			rows.add(engine.getRowsCleared());
+			score.add(engine.getScore());
+			longest.accumulate(played);
+		}
+
+		public int getGames() {
+			return gameScores.length;
+		}
+
+		public long getPieces() {
+			return pieces.sum();
+		}
+
+		public long getRows() {
+			return rows.sum();
+		}
+
+		public long getScore() {
+			return score.sum();
+		}
+
+		public long getLongestGame() {
+			return longest.get();
+		}
+
+		/**  Pieces played per second of wall-clock time, over all threads.  */
+		public double getPiecesPerSecond() {
+			return getPieces() / (nanos / 1e9);
+		}
+
+		/**  Pieces played in the given game.  */
+		public int getGamePieces(int game) {
+			return gamePieces[game];
+		}
+
+		public int getGameRows(int game) {
+			return gameRows[game];
+		}
+
+		public int getGameScore(int game) {
+			return gameScores[game];
+		}
+
+		/**
+		 Writes the summary: totals, speed, and min / 10% / median /
+		 90% / max of the scores and the game lengths.
+		*/
+		public void print(PrintStream out) {
+			int games = getGames();
+			out.println("games           " + games);
+			out.printf("time            %.2f s%n", nanos / 1e9);
+			out.printf("pieces/sec      %.0f%n", getPiecesPerSecond());
+			out.println("pieces          " + getPieces());
+			out.println("rows            " + getRows());
+			out.printf("mean score      %.1f%n", (double) getScore() / games);
+			out.println("score           " + spread(gameScores));
+			out.printf("mean length     %.1f pieces%n", (double) getPieces() / games);
+			out.println("length          " + spread(gamePieces));
+		}
+
+		public void printGames(PrintStream out, long seed) {
+			out.println("game,seed,pieces,rows,score");
+			for (int game=0; game<getGames(); ++game) {
+				out.println(game + "," + (seed + game) + "," + gamePieces[game] + ","
+						+ gameRows[game] + "," + gameScores[game]);
+			}
+		}
+
+		private static String spread(int[] values) {
+			int[] sorted = values.clone();
+			Arrays.sort(sorted);
+			int n = sorted.length;
+			return "min " + sorted[0] + "  10% " + sorted[n / 10] + "  median " + sorted[n / 2]
+					+ "  90% " + sorted[(n * 9) / 10] + "  max " + sorted[n - 1];
+		}
+	}
+
+
+	public static void main(String[] args) throws IOException {
+		BatchSimulator simulator = new BatchSimulator();
+		String csv = null;
+		for (int i=0; i<args.length; i+=2) {
+			String option = args[i];
+			if (i + 1 == args.length) {
+				System.err.println("Option " + option + " needs a value");
+				return;
+			}
+			String value = args[i + 1];
+			try {
+				if (option.equals("-games")) simulator.setGames(Integer.parseInt(value));
+				else if (option.equals("-seed")) simulator.setSeed(Long.parseLong(value));
+				else if (option.equals("-limit")) simulator.setPieceLimit(Integer.parseInt(value));
+				else if (option.equals("-threads")) simulator.setThreads(Integer.parseInt(value));
+				else if (option.equals("-brain")) simulator.setBrainClass(value);
+				else if (option.equals("-pieces")) simulator.setPieces(PieceCatalog.load(value).getPieces());
+				else if (option.equals("-csv")) csv = value;
+				else {
+					System.err.println("Unknown option " + option);
+					return;
+				}
+			}
+			catch (RuntimeException e) {	// a bad number, or out of range
+				System.err.println("Bad value " + value + " for " + option + ": " + e.getMessage());
+				return;
+			}
+		}
+
+		Report report = simulator.run();
+		report.print(System.out);
+		if (csv != null) {
+			PrintStream out = new PrintStream(new FileOutputStream(csv));
+			try {
+				report.printGames(out, simulator.seed);
+			}
+			finally {
+				out.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package tetris;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+/*
+  Unit test for BatchSimulator -- results must not depend on the threads.
+ */
+public class BatchSimulatorTest {
+
+	private BatchSimulator.Report simulate(int threads) {
+		BatchSimulator simulator = new BatchSimulator();
+		simulator.setGames(12);
+		simulator.setSeed(7);
+		simulator.setPieceLimit(40);
+		simulator.setThreads(threads);
+		return simulator.run();
+	}
+
+	// Each game is seeded on its own, so one thread or four play the same games
+	@Test
+	public void testSameOnAnyThreads() {
+		BatchSimulator.Report one = simulate(1);
+		BatchSimulator.Report four = simulate(4);
+		assertEquals(12, one.getGames());
+		assertEquals(one.getPieces(), four.getPieces());
+		assertEquals(one.getRows(), four.getRows());
+		assertEquals(one.getScore(), four.getScore());
+		long pieces = 0;
+		for (int game=0; game<12; ++game) {
+			assertEquals(one.getGameScore(game), four.getGameScore(game));
+			assertEquals(one.getGamePieces(game), four.getGamePieces(game));
+			pieces += one.getGamePieces(game);
+		}
+		assertEquals(pieces, one.getPieces());
+		assertTrue(one.getLongestGame() <= 40);	// the pieces placed, not the one the limit stopped
+	}
+
+	// A run needs at least one game to report on
+	@Test(expected = RuntimeException.class)
+	public void testNoGames() {
+		new BatchSimulator().setGames(0);
+	}
+
+	// and at least one thread to play them on
+	@Test(expected = RuntimeException.class)
+	public void testNoThreads() {
+		new BatchSimulator().setThreads(0);
+	}
+}
@@ -1,6 +1,8 @@
 // Board.java
 package tetris;
 
+import java.util.Arrays;
+
 /**
  CS108 Tetris Board.
  Represents a Tetris board -- essentially a 2-d grid
@@ -8,67 +10,182 @@ package tetris;
  Has an "undo" feature that allows clients to add and remove pieces efficiently.
  Does not do any drawing or have any idea of pixels. Instead,
  just represents the abstract 2-d board.
+
+ <p>
+ The grid is stored as a bitboard: every row is one packed long
+ where bit x is set when the block (x, y) is filled, so boards
+ can be at most 64 blocks wide. Row-full checks, collisions and
+ shifting rows down are all whole-word operations.
+
+ <p>
+ Undo is kept as a journal: place() and clearRows() record the old
+ value of every row word, column height and scalar they overwrite,
+ so undo() and commit() cost O(touched cells) instead of copying the
+ whole grid. The older full-copy backup is still available through
+ UNDO_FULL_COPY, mostly to cross-check the journal in tests.
+
+ <p>
+ The journal also backs nested checkpoints: mark() remembers the
+ current committed state and rollbackTo() returns to it through any
+ number of place/clearRows/commit steps, which lets a search play
+ several pieces deep on one board and back out without copying it.
+ <pre>
+ int mark = board.mark();
+ board.place(piece, x, y);
+ board.clearRows();
+ board.commit();	 // the journal is kept while a mark is held
+ ...				 // place the next piece, and so on
+ board.rollbackTo(mark);
+ </pre>
+
+ <p>
+ The board keeps a 64-bit Zobrist hash of its filled blocks, see getHash().
+ Every row write XORs in the keys of the blocks that flipped, so the hash
+ follows place(), clearRows(), undo() and rollbackTo() at O(cells changed).
+
+ <p>
+ clearRows() never walks the whole board: a count of full rows is kept
+ as rows are written, the full rows are found from maxHeight down, only
+ the rows above the lowest full one are moved (one word each), and
+ column heights are fixed up from where their top blocks moved to.
+ Its cost is O(rows above the lowest cleared row), whatever the board height.
+
+ <p>
+ With setFeatureTracking(true) the board also keeps the usual
+ evaluation aggregates -- holes, wells, bumpiness, row transitions --
+ up to date as rows and heights are written (and put back by undo),
+ so evaluators read them in O(1) from getFeatures() instead of
+ scanning the grid.
 */
 public class Board	{
-	// Some ivars are stubbed out for you:
+	/**  widest board that still fits one row into a single long  */
+	public static final int MAX_WIDTH = 64;
+
+	/**  undo modes, see Board(int, int, int)  */
+	public static final int UNDO_JOURNAL = 0;
+	public static final int UNDO_FULL_COPY = 1;
+
 	private int width;
 	private int height, maxHeight, backUpMaxHeight;
-	private int[] widths, heights, backupWidths, backupHeighths;
-	private boolean[][] grid, backUp;
+	private int[] heights, backupHeighths;
+	private int[] slots;		// scratch for clearRows()
+	private int[] checkHeights, checkFeatures;	// scratch for sanityCheck()
+	private int fullRows, backUpFullRows;	// how many rows are full
+	private boolean tracking;
+	private int[] features, backUpFeatures;		// see FEATURE_XXX
+	private Features featuresView;
+	private long[] rows, backUpRows;
+	private long fullRow;
+	private long hash, backUpHash;
 	private boolean DEBUG = true;
 	private boolean committed;
-	
-	
+
+	// undo journal -- what was overwritten, oldest first
+	private final boolean journaled;
+	private int[] journalWhere;
+	private long[] journalOld;
+	private int journalSize;
+	private int undoStart;		// journal position undo() goes back to
+	private int[] marks;		// journal positions of the held checkpoints
+	private int markDepth;
+
+	private static final int JOURNAL_ROW = 0;
+	private static final int JOURNAL_HEIGHT = 1;
+	private static final int JOURNAL_MAX_HEIGHT = 2;
+	private static final int JOURNAL_KINDS = 3;
+	private static final int JOURNAL_START_SIZE = 64;
+
+	// the aggregates in features[] when tracking is on
+	private static final int FEATURE_BLOCKS = 0;
+	private static final int FEATURE_HEIGHT_SUM = 1;
+	private static final int FEATURE_BUMPINESS = 2;
+	private static final int FEATURE_WELLS = 3;
+	private static final int FEATURE_ROW_TRANSITIONS = 4;	// over all rows, empty ones too
+	private static final int FEATURE_COUNT = 5;
+
+
 	// Here a few trivial methods are provided:
-	
+
 	/**
 	 Creates an empty board of the given width and height
 	 measured in blocks.
 	*/
 	public Board(int width, int height) {
+		this(width, height, UNDO_JOURNAL);
+	}
+
+
+	/**
+	 Creates an empty board that undoes with the given mode:
+	 UNDO_JOURNAL records only what place() and clearRows() change,
+	 UNDO_FULL_COPY backs up the whole board on every place() and commit().
+	*/
+	public Board(int width, int height, int undoMode) {
+		if (width < 1 || width > MAX_WIDTH){
+			throw new RuntimeException("Board width must be between 1 and " + MAX_WIDTH);
+		}
 		this.width = width;
 		this.height = height;
 
-		widths = new int[height];
 		heights = new int[width];
-		backupWidths = new int[height];
-		backupHeighths = new int[width];
+		rows = new long[height];
 
-		grid = new boolean[width][height];
-		backUp = new boolean[width][height];
+		journaled = undoMode == UNDO_JOURNAL;
+		if (journaled){
+			journalWhere = new int[JOURNAL_START_SIZE];
+			journalOld = new long[JOURNAL_START_SIZE];
+			marks = new int[JOURNAL_START_SIZE];
+		} else {
+			backupHeighths = new int[width];
+			backUpRows = new long[height];
+		}
+		fullRow = width == MAX_WIDTH ? -1L : (1L << width) - 1;
 		maxHeight = backUpMaxHeight = 0;
 
 		committed = true;
+	}
 
-		for (int i=0; i<width; ++i){
-			heights[i] = backupHeighths[i] = 0;
-			for (int j=0; j<height; ++j){
-				grid[i][j] = backUp[i][j] = false;
-			}
-		}
 
-		for (int i=0; i<height; ++i){
-			widths[i] = backupWidths[i] = 0;
+	/**
+	 Creates a copy of the given board, e.g. so that another thread can
+	 try moves on it. The copy has the same blocks, undo mode and
+	 feature tracking, and starts committed with no marks held.
+	 The given board should be in the committed state.
+	*/
+	public Board(Board board) {
+		this(board.width, board.height, board.journaled ? UNDO_JOURNAL : UNDO_FULL_COPY);
+		System.arraycopy(board.rows, 0, rows, 0, height);
+		System.arraycopy(board.heights, 0, heights, 0, width);
+		maxHeight = board.maxHeight;
+		hash = board.hash;
+		fullRows = board.fullRows;
+		DEBUG = board.DEBUG;
+		if (board.tracking){
+			tracking = true;
+			features = board.features.clone();
+			backUpFeatures = features.clone();
+			featuresView = new Features();
 		}
+		if (!journaled) backUpData();
 	}
-	
-	
+
+
 	/**
 	 Returns the width of the board in blocks.
 	*/
 	public int getWidth() {
 		return width;
 	}
-	
-	
+
+
 	/**
 	 Returns the height of the board in blocks.
 	*/
 	public int getHeight() {
 		return height;
 	}
-	
-	
+
+
 	/**
 	 Returns the max column height present in the board.
 	 For an empty board this is 0.
@@ -76,11 +193,25 @@ public class Board	{
 	public int getMaxHeight() {
 		return maxHeight;
 	}
-	
+
 
 	private static final int WIDTHS_NOT_CORRECT = 1;
 	private static final int HEIGHTS_NOT_CORRECT = 2;
 	private static final int MAX_HEIGHT_NOT_CORRECT = 3;
+	private static final int HASH_NOT_CORRECT = 4;
+	private static final int FULL_ROWS_NOT_CORRECT = 5;
+	private static final int FEATURES_NOT_CORRECT = 6;
+
+	/**
+	 Turns the consistency checks of sanityCheck() on or off. They are
+	 on by default; clearRows() runs them, and they look at every row,
+	 so turn them off for speed on tall boards. GameEngine turns them
+	 off for its boards; copies keep the setting of the board copied.
+	*/
+	public void setDebug(boolean debug) {
+		DEBUG = debug;
+	}
+
 
 	/**
 	 Checks the board for internal consistency -- used
@@ -90,7 +221,7 @@ public class Board	{
 		if (DEBUG) {
 			int errorLog = checkCorrectness();
 			if (errorLog == WIDTHS_NOT_CORRECT){
-				throw new RuntimeException("WIDTHS arraay is counted wrongly!");
+				throw new RuntimeException("row has blocks outside of the board!");
 			}
 			if (errorLog == HEIGHTS_NOT_CORRECT){
 				throw new RuntimeException("HEIGHTS arraay is counted wrongly!");
@@ -98,6 +229,15 @@ public class Board	{
 			if (errorLog == MAX_HEIGHT_NOT_CORRECT){
 				throw new RuntimeException("maxHeight is counted wrongly!");
 			}
+			if (errorLog == HASH_NOT_CORRECT){
+				throw new RuntimeException("hash is counted wrongly!");
+			}
+			if (errorLog == FULL_ROWS_NOT_CORRECT){
+				throw new RuntimeException("full rows are counted wrongly!");
+			}
+			if (errorLog == FEATURES_NOT_CORRECT){
+				throw new RuntimeException("features are counted wrongly!");
+			}
 		}
 	}
 
@@ -107,21 +247,25 @@ public class Board	{
 	 * and returns error codes in in manner described above
 	 * */
 	private int checkCorrectness(){
-		int[] checkArray = new int [width];
-		for (int i=0; i<width; ++i){
-			checkArray[i] = 0;
+		if (checkHeights == null){
+			checkHeights = new int[width];
+			checkFeatures = new int[FEATURE_COUNT];
 		}
+		int[] checkArray = checkHeights;
+		Arrays.fill(checkArray, 0);
+		long checkHash = 0;
+		int checkFull = 0;
 		for (int j=0; j<height; ++j){
-			int num = 0;
-			for (int i=0; i<width; ++i){
-				if (grid[i][j]){
-					num++;
-					checkArray[i] = Math.max(j + 1, checkArray[i]);
-				}
-			}
-			if (num != widths[j]){
+			long row = rows[j];
+			if ((row & ~fullRow) != 0){
 				return WIDTHS_NOT_CORRECT;
 			}
+			checkHash ^= rowKey(j, row);
+			if (row == fullRow) checkFull++;
+			while (row != 0){
+				checkArray[Long.numberOfTrailingZeros(row)] = j + 1;
+				row &= row - 1;
+			}
 		}
 		int newMax = 0;
 		for (int i=0; i<width; ++i){
@@ -133,15 +277,60 @@ public class Board	{
 		if (maxHeight != newMax){
 			return MAX_HEIGHT_NOT_CORRECT;
 		}
+		if (hash != checkHash){
+			return HASH_NOT_CORRECT;
+		}
+		if (fullRows != checkFull){
+			return FULL_ROWS_NOT_CORRECT;
+		}
+		if (tracking && !Arrays.equals(features, countFeatures(checkFeatures))){
+			return FEATURES_NOT_CORRECT;
+		}
 		return 0;
 	}
 
 
+	/**
+	 Returns the Zobrist hash of the filled blocks -- the XOR of one
+	 fixed random 64-bit key per filled (x, y). Boards with the same
+	 blocks filled have the same hash, whatever moves got them there.
+	 Cheap to call: the hash is kept up to date as the board changes.
+	*/
+	public long getHash() {
+		return hash;
+	}
+
+
+	/**
+	 * Zobrist key of block (x, y): a splitmix64 scramble of its position,
+	 * so the keys are the same for every board and need no table
+	 * */
+	private static long cellKey(int x, int y) {
+		long z = ((long) y * MAX_WIDTH + x + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+
+	/**
+	 * XOR of the keys of every block set in the given row bits
+	 * */
+	private static long rowKey(int y, long bits) {
+		long key = 0;
+		while (bits != 0){
+			key ^= cellKey(Long.numberOfTrailingZeros(bits), y);
+			bits &= bits - 1;
+		}
+		return key;
+	}
+
+
 	/**
 	 Given a piece and an x, returns the y
 	 value where the piece would come to rest
 	 if it were dropped straight down at that x.
-	 
+
 	 <p>
 	 Implementation: use the skirt and the col heights
 	 to compute this fast -- O(skirt length).
@@ -155,37 +344,99 @@ public class Board	{
 		}
 		return answer;
 	}
-	
-	
+
+
+	/**
+	 Batch form of dropHeight(): fills out[x] with the landing y of the
+	 piece for every x where it fits across the board, and returns how
+	 many x that is (width - piece width + 1). out must be at least
+	 that long.
+
+	 <p>
+	 Implementation: the loops run skirt-column outer and x inner over
+	 plain int arrays, so HotSpot can auto-vectorize the inner max.
+	 (The incubating Vector API would need --add-modules on every
+	 build and run, for the same instructions.)
+	*/
+	public int dropHeights(Piece piece, int[] out) {
+		int[] skirt = piece.getSkirt();
+		int count = width - skirt.length + 1;
+		if (count <= 0){
+			return 0;
+		}
+		final int[] heights = this.heights;
+		int s = skirt[0];
+		for (int x=0; x<count; ++x){
+			out[x] = heights[x] - s;
+		}
+		for (int i=1; i<skirt.length; ++i){
+			s = skirt[i];
+			for (int x=0; x<count; ++x){
+				out[x] = Math.max(out[x], heights[x + i] - s);
+			}
+		}
+		return count;
+	}
+
+
+	/**
+	 dropHeights() for every rotation of the piece, following
+	 fastRotation() around: out[r] gets the landing heights of the r-th
+	 rotation from the given one. Returns the number of rotations.
+	 out must have a row, at least width long, for each rotation.
+	*/
+	public int dropHeights(Piece piece, int[][] out) {
+		int r = 0;
+		Piece current = piece;
+		do {
+			dropHeights(current, out[r++]);
+			current = current.fastRotation();
+		} while (current != piece && current != null);
+		return r;
+	}
+
+
 	/**
 	 Returns the height of the given column --
 	 i.e. the y value of the highest block + 1.
 	 The height is 0 if the column contains no blocks.
 	*/
 	public int getColumnHeight(int x) {
-		return heights[x]; // YOUR CODE HERE
+		return heights[x];
 	}
-	
-	
+
+
 	/**
 	 Returns the number of filled blocks in
 	 the given row.
 	*/
 	public int getRowWidth(int y) {
-		return widths[y]; // YOUR CODE HERE
+		return Long.bitCount(rows[y]);
 	}
-	
-	
+
+
+	/**
+	 Returns the given row as a bit mask, bit x set when the block
+	 (x, y) is filled -- for evaluators that work a row at a time.
+	*/
+	public long getRow(int y) {
+		return rows[y];
+	}
+
+
 	/**
 	 Returns true if the given block is filled in the board.
 	 Blocks outside of the valid width/height area
 	 always return true.
 	*/
 	public boolean getGrid(int x, int y) {
-		return x >= width && y >= height ?true:grid[x][y];
+		if (x < 0 || x >= width || y < 0 || y >= height){
+			return true;
+		}
+		return (rows[y] & (1L << x)) != 0;
 	}
-	
-	
+
+
 	public static final int PLACE_OK = 0;
 	public static final int PLACE_ROW_FILLED = 1;
 	public static final int PLACE_OUT_BOUNDS = 2;
@@ -196,7 +447,7 @@ public class Board	{
 	 Copies the piece blocks into the board grid.
 	 Returns PLACE_OK for a regular placement, or PLACE_ROW_FILLED
 	 for a regular placement that causes at least one row to be filled.
-	 
+
 	 <p>Error cases:
 	 A placement may fail in two ways. First, if part of the piece may falls out
 	 of bounds of the board, PLACE_OUT_BOUNDS is returned.
@@ -210,111 +461,366 @@ public class Board	{
 		if (!committed) throw new RuntimeException("place commit problem");
 
 		committed = false;
-		if (x < 0 || x >= width || y < 0 || y >= height){
+		if (x < 0 || y < 0 || x + piece.getWidth() > width || y + piece.getHeight() > height){
 			return PLACE_OUT_BOUNDS;
 		}
 
-		backUpData();
+		if (!journaled) backUpData();
 
-		int result = PLACE_OK;
-		TPoint[] body = piece.getBody();
-		int size = body.length;
-		boolean ind = false;
-		for (int i=0; i<size; ++i){
-			int pX = body[i].x;
-			int pY = body[i].y;
-			if (x + pX >= width || y + pY >= height){
-				return PLACE_OUT_BOUNDS;
+		long[] masks = piece.getRowMasks();
+		int rowCount = masks.length;
+		for (int r=0; r<rowCount; ++r){
+			if ((rows[y + r] & (masks[r] << x)) != 0){
+				return PLACE_BAD;
 			}
-			ind |= grid[x + pX][y + pY];
-		}
-		if (ind){
-			return PLACE_BAD;
-		}
-		for (int i=0; i<size; ++i){
-			int pX = body[i].x + x;
-			int pY = body[i].y + y;
-			grid[pX][pY] = true;
-			widths[pY]++;
-			heights[pX] = Math.max(heights[pX], pY + 1);
-			maxHeight = Math.max(maxHeight, pY + 1);
-			if (widths[pY] == width){
+		}
+		int result = PLACE_OK;
+		for (int r=0; r<rowCount; ++r){
+			long row = rows[y + r] | (masks[r] << x);
+			setRow(y + r, row);
+			if (row == fullRow){
 				result = PLACE_ROW_FILLED;
 			}
 		}
+		int[] coords = piece.getCoords();
+		for (int i=0; i<coords.length; i+=2){
+			int pX = coords[i] + x;
+			int pY = coords[i + 1] + y;
+			if (heights[pX] < pY + 1){
+				setHeight(pX, pY + 1);
+			}
+		}
+		if (maxHeight < y + rowCount){
+			setMaxHeight(y + rowCount);
+		}
 		return result;
 	}
-	
-	
+
+
+	/**
+	 Returns true if the piece fits at the given x,y: it is inside the
+	 board and none of its blocks overlap filled blocks. Does not change
+	 the board -- one shifted mask AND per row of the piece.
+	*/
+	public boolean canPlace(Piece piece, int x, int y) {
+		if (x < 0 || y < 0 || x + piece.getWidth() > width || y + piece.getHeight() > height){
+			return false;
+		}
+		long[] masks = piece.getRowMasks();
+		for (int r=0; r<masks.length; ++r){
+			if ((rows[y + r] & (masks[r] << x)) != 0){
+				return false;
+			}
+		}
+		return true;
+	}
+
+
 	/**
 	 Deletes rows that are filled all the way across, moving
 	 things above down. Returns the number of rows cleared.
 	*/
 	public int clearRows() {
 		committed = false;
-		int rowsCleared = 0;
-		boolean[] deleted = new boolean[height];
-		for (int i=0; i<height; ++i){
-			if (widths[i] == width){
-				rowsCleared++;
-				deleted[i] = true;
+		if (fullRows == 0){
+			return 0;
+		}
+		int rowsCleared = fullRows;
+
+		// the full rows are found from the top down, since they are
+		// usually just under maxHeight where the last piece landed
+		int lowest = maxHeight;
+		for (int found=0; found<rowsCleared; ){
+			lowest--;
+			if (rows[lowest] == fullRow) found++;
+		}
+
+		// slide every surviving row above the lowest full one down
+		// over the full rows; slots[j] is where old row j went, or
+		// ~(where the next surviving row goes) if row j was full
+		if (slots == null) slots = new int[height];
+		int oldMax = maxHeight;
+		int to = lowest;
+		for (int from=lowest; from<oldMax; ++from){
+			long row = rows[from];
+			if (row != fullRow){
+				slots[from] = to;
+				if (to != from) setRow(to, row);
+				to++;
+			} else {
+				slots[from] = ~to;
 			}
 		}
-		moveThingsDown(deleted, rowsCleared);
+		for (int j=to; j<oldMax; ++j){
+			setRow(j, 0L);
+		}
+		fixHeights(lowest);
 		sanityCheck();
 		return rowsCleared;
 	}
 
 
 	/**
-	 * after clear row is called this method moves pieces parts down
+	 * after clearRows() fixes up the height of every column reaching
+	 * above the lowest cleared row. A column whose top block survived
+	 * just moves down with it, otherwise the column is searched down
+	 * from where its top row went until a block is found
 	 * */
-	private void moveThingsDown(boolean[] deleted, int rowsCleared) {
-		if (rowsCleared == 0){
-			return;
-		}
-		int lower = 0;
-		while(!deleted[lower]){
-			lower++;
-		}
-		int num = 0;
-		int max = getMaxHeight();
-		for (int j=lower; j<max; ++j){
-			if (deleted[j]){
-				num++;
-			}
-			if (!deleted[j]){
-				widths[j - num] = widths[j];
-			}
-			widths[j] = 0;
-			for (int i=0; i<width; i++){
-				if (!deleted[j]){
-					grid[i][j - num] = grid[i][j];
+	private void fixHeights(int lowest) {
+		int newMax = 0;
+		for (int i=0; i<width; ++i){
+			int top = heights[i] - 1;
+			if (top >= lowest){
+				int newTop = slots[top];
+				if (newTop >= 0){
+					setHeight(i, newTop + 1);
+				} else {
+					long bit = 1L << i;
+					int y = ~newTop - 1;
+					while (y >= 0 && (rows[y] & bit) == 0){
+						y--;
+					}
+					setHeight(i, y + 1);
 				}
-				grid[i][j] = false;
 			}
+			newMax = Math.max(newMax, heights[i]);
 		}
-		maxHeight = 0;
-		for (int i=0; i<width; ++i) {
-			heights[i] = 0;
-			for (int j=height - 1; j > -1; --j){
-				if (grid[i][j]){
-					heights[i] = j + 1;
-					maxHeight = Math.max(maxHeight, j + 1);
-					break;
-				}
+		setMaxHeight(newMax);
+	}
+
+
+	/*
+	 Journaled setters -- every change place() and clearRows() make
+	 to the board goes through one of these, so that the journal
+	 holds enough to put the old values back.
+	*/
+
+	private void setRow(int y, long value) {
+		if (journaled) record(JOURNAL_ROW, y, rows[y]);
+		writeRow(y, value);
+	}
+
+	private void setHeight(int x, int value) {
+		if (journaled) record(JOURNAL_HEIGHT, x, heights[x]);
+		writeHeight(x, value);
+	}
+
+	private void setMaxHeight(int value) {
+		if (journaled) record(JOURNAL_MAX_HEIGHT, 0, maxHeight);
+		maxHeight = value;
+	}
+
+	private void record(int kind, int index, long old) {
+		if (journalSize == journalWhere.length){
+			journalWhere = Arrays.copyOf(journalWhere, journalSize * 2);
+			journalOld = Arrays.copyOf(journalOld, journalSize * 2);
+		}
+		journalWhere[journalSize] = index * JOURNAL_KINDS + kind;
+		journalOld[journalSize] = old;
+		journalSize++;
+	}
+
+
+	/**
+	 * puts back everything recorded in the journal after the given
+	 * position, newest first, and drops those entries
+	 * */
+	private void rollBackJournal(int position) {
+		for (int k=journalSize - 1; k >= position; --k){
+			int where = journalWhere[k];
+			int index = where / JOURNAL_KINDS;
+			long old = journalOld[k];
+			switch (where % JOURNAL_KINDS){
+				case JOURNAL_ROW: writeRow(index, old); break;
+				case JOURNAL_HEIGHT: writeHeight(index, (int) old); break;
+				default: maxHeight = (int) old;
 			}
 		}
+		journalSize = position;
 	}
 
 
-	private void backUpData(){
+	/**
+	 * stores a row word, keeping everything derived from rows in step
+	 * */
+	private void writeRow(int y, long value) {
+		long old = rows[y];
+		hash ^= rowKey(y, old ^ value);
+		if (old == fullRow) fullRows--;
+		if (value == fullRow) fullRows++;
+		if (tracking){
+			features[FEATURE_BLOCKS] += Long.bitCount(value) - Long.bitCount(old);
+			features[FEATURE_ROW_TRANSITIONS] += rowTransitions(value) - rowTransitions(old);
+		}
+		rows[y] = value;
+	}
+
+
+	/**
+	 * stores a column height, keeping everything derived from heights in step --
+	 * only this column and its two neighbours can change their bumpiness or wells
+	 * */
+	private void writeHeight(int x, int value) {
+		if (tracking){
+			features[FEATURE_HEIGHT_SUM] += value - heights[x];
+			features[FEATURE_BUMPINESS] -= bumpAround(x);
+			features[FEATURE_WELLS] -= wellsAround(x);
+			heights[x] = value;
+			features[FEATURE_BUMPINESS] += bumpAround(x);
+			features[FEATURE_WELLS] += wellsAround(x);
+		} else {
+			heights[x] = value;
+		}
+	}
+
+
+	/**
+	 * number of filled/empty changes along a row, counting the
+	 * walls on both sides as filled
+	 * */
+	private int rowTransitions(long row) {
+		int inside = Long.bitCount((row ^ (row >>> 1)) & (fullRow >>> 1));
+		int left = (int) (~row & 1);
+		int right = (int) (~(row >>> (width - 1)) & 1);
+		return inside + left + right;
+	}
+
+	private int bumpAround(int x) {
+		int bump = 0;
+		if (x > 0) bump += Math.abs(heights[x] - heights[x - 1]);
+		if (x < width - 1) bump += Math.abs(heights[x] - heights[x + 1]);
+		return bump;
+	}
+
+	private int wellsAround(int x) {
+		int wells = wellDepth(x);
+		if (x > 0) wells += wellDepth(x - 1);
+		if (x < width - 1) wells += wellDepth(x + 1);
+		return wells;
+	}
+
+	/**
+	 * how far column x sits below the lower of its neighbours,
+	 * a wall counting as an endlessly tall neighbour
+	 * */
+	private int wellDepth(int x) {
+		int left = x > 0 ? heights[x - 1] : Integer.MAX_VALUE;
+		int right = x < width - 1 ? heights[x + 1] : Integer.MAX_VALUE;
+		int lower = Math.min(left, right);
+		if (lower == Integer.MAX_VALUE) return 0;
+		return Math.max(0, lower - heights[x]);
+	}
+
+
+	/**
+	 * computes the aggregates of features[] from scratch, into counted
+	 * */
+	private int[] countFeatures(int[] counted) {
+		Arrays.fill(counted, 0);
+		for (int j=0; j<height; ++j){
+			counted[FEATURE_BLOCKS] += Long.bitCount(rows[j]);
+			counted[FEATURE_ROW_TRANSITIONS] += rowTransitions(rows[j]);
+		}
 		for (int i=0; i<width; ++i){
-			System.arraycopy(grid[i], 0, backUp[i], 0, height);
+			counted[FEATURE_HEIGHT_SUM] += heights[i];
+			counted[FEATURE_WELLS] += wellDepth(i);
+			if (i > 0) counted[FEATURE_BUMPINESS] += Math.abs(heights[i] - heights[i - 1]);
 		}
-		System.arraycopy(widths, 0, backupWidths, 0, height);
+		return counted;
+	}
+
+
+	/**
+	 Turns the upkeep of the evaluation aggregates read through
+	 getFeatures() on or off. Turning it on counts them once from
+	 scratch; after that place(), clearRows(), undo() and rollbackTo()
+	 keep them current at O(1) per row or height they change.
+	 The board should be in the committed state when this is called.
+	 Turning it back on later reuses the arrays, so brains that turn it
+	 on for a search and back off after do not allocate.
+	*/
+	public void setFeatureTracking(boolean on) {
+		if (on && !tracking){
+			if (features == null){
+				features = new int[FEATURE_COUNT];
+				backUpFeatures = new int[FEATURE_COUNT];
+				featuresView = new Features();
+			}
+			countFeatures(features);
+			System.arraycopy(features, 0, backUpFeatures, 0, FEATURE_COUNT);
+		}
+		tracking = on;
+	}
+
+	public boolean isFeatureTracking() {
+		return tracking;
+	}
+
+
+	/**
+	 Returns the read-only view of the tracked evaluation aggregates,
+	 or null if feature tracking is off. The view always shows the
+	 current board, so it may be kept and read again after moves.
+	*/
+	public Features getFeatures() {
+		return tracking ? featuresView : null;
+	}
+
+
+	/**
+	 Read-only view of the aggregates a Board keeps when feature
+	 tracking is on. Every getter is O(1).
+	*/
+	public class Features {
+		private Features() {
+		}
+
+		/**  Number of filled blocks on the board.  */
+		public int getBlocks() {
+			return features[FEATURE_BLOCKS];
+		}
+
+		/**  Sum of all the column heights.  */
+		public int getAggregateHeight() {
+			return features[FEATURE_HEIGHT_SUM];
+		}
+
+		/**  Empty blocks below the top of their column.  */
+		public int getHoles() {
+			return features[FEATURE_HEIGHT_SUM] - features[FEATURE_BLOCKS];
+		}
+
+		/**  Sum of the height differences of neighbouring columns.  */
+		public int getBumpiness() {
+			return features[FEATURE_BUMPINESS];
+		}
+
+		/**
+		 Sum over the columns of how far each one is below the lower of
+		 its neighbours, the walls counting as endlessly tall.
+		*/
+		public int getWells() {
+			return features[FEATURE_WELLS];
+		}
+
+		/**
+		 Filled/empty changes along the rows below maxHeight,
+		 the walls counting as filled.
+		*/
+		public int getRowTransitions() {
+			// each empty row above maxHeight has just its two wall transitions
+			return features[FEATURE_ROW_TRANSITIONS] - 2 * (height - maxHeight);
+		}
+	}
+
+
+	private void backUpData(){
+		System.arraycopy(rows, 0, backUpRows, 0, height);
 		System.arraycopy(heights, 0, backupHeighths, 0, width);
 		backUpMaxHeight = maxHeight;
+		backUpHash = hash;
+		backUpFullRows = fullRows;
+		if (tracking) System.arraycopy(features, 0, backUpFeatures, 0, FEATURE_COUNT);
 	}
 
 	/**
@@ -328,31 +834,83 @@ public class Board	{
 		if (committed){
 			return;
 		}
-		for (int i=0; i<width; ++i){
-			System.arraycopy(backUp[i], 0, grid[i], 0, height);
+		if (journaled){
+			rollBackJournal(undoStart);
+		} else {
+			System.arraycopy(backUpRows, 0, rows, 0, height);
+			System.arraycopy(backupHeighths, 0, heights, 0, width);
+			maxHeight = backUpMaxHeight;
+			hash = backUpHash;
+			fullRows = backUpFullRows;
+			if (tracking) System.arraycopy(backUpFeatures, 0, features, 0, FEATURE_COUNT);
 		}
-		System.arraycopy(backupWidths, 0, widths, 0, height);
-		System.arraycopy(backupHeighths, 0, heights, 0, width);
-		maxHeight = backUpMaxHeight;
 		committed = true;
 	}
-	
-	
+
+
 	/**
 	 Puts the board in the committed state.
 	*/
 	public void commit() {
-		backUpData();
+		if (journaled){
+			// with no checkpoint held nobody can go back further than here
+			if (markDepth == 0) journalSize = 0;
+			undoStart = journalSize;
+		} else {
+			backUpData();
+		}
 		committed = true;
 	}
 
 
-	
+	/**
+	 Remembers the current state so that it can be returned to
+	 later with rollbackTo(), however many pieces are placed and
+	 committed in between. Returns the mark to pass to rollbackTo().
+	 Marks nest, and must be rolled back newest first.
+	 The board should be in the committed state when this is called,
+	 and must have been created with UNDO_JOURNAL.
+	*/
+	public int mark() {
+		if (!journaled) throw new RuntimeException("checkpoints need an UNDO_JOURNAL board");
+		if (!committed) throw new RuntimeException("mark commit problem");
+		if (markDepth == marks.length){
+			marks = Arrays.copyOf(marks, markDepth * 2);
+		}
+		marks[markDepth] = journalSize;
+		return markDepth++;
+	}
+
+
+	/**
+	 Reverts the board to the state it was in when the given mark
+	 was taken, and releases that mark and every mark taken after it.
+	 The board is left in the committed state.
+	*/
+	public void rollbackTo(int mark) {
+		if (mark < 0 || mark >= markDepth) throw new RuntimeException("no such mark: " + mark);
+		rollBackJournal(marks[mark]);
+		markDepth = mark;
+		if (markDepth == 0) journalSize = 0;
+		undoStart = journalSize;
+		committed = true;
+	}
+
+
+	/**
+	 Returns how many marks are currently held.
+	*/
+	public int getMarkDepth() {
+		return markDepth;
+	}
+
+
+
 	/*
 	 Renders the board state as a big String, suitable for printing.
 	 This is the sort of print-obj-state utility that can help see complex
 	 state change over time.
-	 (provided debugging utility) 
+	 (provided debugging utility)
 	 */
 	public String toString() {
 		StringBuilder buff = new StringBuilder();
@@ -368,5 +926,3 @@ public class Board	{
 		return(buff.toString());
 	}
 }
-
-
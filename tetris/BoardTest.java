@@ -1,6 +1,7 @@
 package tetris;
 
 import static org.junit.Assert.*;
+import java.util.*;
 
 import org.junit.*;
 
@@ -52,6 +53,19 @@ public class BoardTest {
 		assertEquals(4, b.getMaxHeight());
 	}
 	
+	// canPlace() checks bounds and overlaps without touching the board
+	@Test
+	public void testCanPlace() {
+		assertFalse(b.canPlace(pyr1, 0, 0));
+		assertFalse(b.canPlace(pyr1, 1, 1));
+		assertFalse(b.canPlace(pyr1, -1, 3));
+		assertFalse(b.canPlace(pyr2, 2, 0));
+		assertFalse(b.canPlace(pyr3, 0, 1));
+		assertTrue(b.canPlace(pyr3, 0, 2));
+		assertTrue(b.canPlace(pyr1, 0, 2));
+		assertEquals(2, b.getMaxHeight());
+	}
+
 	// Make  more tests, by putting together longer series of 
 	// place, clearRows, undo, place ... checking a few col/row/max
 	// numbers that the board looks right after the operations.
@@ -76,5 +90,285 @@ public class BoardTest {
 		int a = br.dropHeight(p[0], 0);
 		assertEquals(6, a);
 	}
-	
+
+	// Clear two rows that are not next to each other and check
+	// that the rows between and above them fall down as words
+	@Test
+	public void testClearSplitRows() {
+		Board br = new Board(3, 8);
+		Piece stick = Piece.getPieces()[Piece.STICK];
+		br.place(stick, 0, 0);
+		br.commit();
+		br.place(stick, 2, 0);
+		br.commit();
+		assertEquals(Board.PLACE_ROW_FILLED, br.place(new Piece("0 0  0 2"), 1, 0));
+		assertEquals(2, br.clearRows());
+		assertEquals(2, br.getColumnHeight(0));
+		assertEquals(0, br.getColumnHeight(1));
+		assertEquals(2, br.getColumnHeight(2));
+		assertEquals(2, br.getMaxHeight());
+		assertEquals(2, br.getRowWidth(0));
+		assertEquals(2, br.getRowWidth(1));
+		assertFalse(br.getGrid(1, 0));
+		// outside the board always counts as filled
+		assertTrue(br.getGrid(-1, 0));
+		assertTrue(br.getGrid(0, 8));
+		br.undo();
+		assertEquals(4, br.getMaxHeight());
+		assertEquals(0, br.getColumnHeight(1));
+	}
+
+	// Play the same random place/clearRows/undo/commit sequence on a
+	// journaled board and a full-copy board and check they never differ
+	@Test
+	public void testJournalMatchesFullCopy() {
+		Random rand = new Random(108);
+		Piece[] p = Piece.getPieces();
+		Board journal = new Board(6, 12);
+		Board copy = new Board(6, 12, Board.UNDO_FULL_COPY);
+		journal.setFeatureTracking(true);
+		copy.setFeatureTracking(true);
+		for (int step=0; step<2000; ++step){
+			Piece piece = p[rand.nextInt(p.length)];
+			for (int r=rand.nextInt(4); r>0; --r) piece = piece.fastRotation();
+			int x = rand.nextInt(journal.getWidth() - piece.getWidth() + 1);
+			// sometimes leave the piece hanging to make holes
+			int y = journal.dropHeight(piece, x) + (rand.nextInt(4) == 0 ? 1 : 0);
+			if (y + piece.getHeight() > journal.getHeight()){
+				journal = new Board(6, 12);
+				copy = new Board(6, 12, Board.UNDO_FULL_COPY);
+				journal.setFeatureTracking(rand.nextBoolean());
+				copy.setFeatureTracking(true);
+				continue;
+			}
+			int result = journal.place(piece, x, y);
+			assertEquals(result, copy.place(piece, x, y));
+			if (result == Board.PLACE_ROW_FILLED){
+				assertEquals(journal.clearRows(), copy.clearRows());
+			}
+			assertSameBoard(copy, journal);
+			if (rand.nextInt(3) == 0){
+				journal.undo();
+				copy.undo();
+			} else {
+				journal.commit();
+				copy.commit();
+			}
+			assertSameBoard(copy, journal);
+			journal.sanityCheck();
+			copy.sanityCheck();
+		}
+	}
+
+	// Play three pieces deep under nested marks, clearing a row on
+	// the way, then roll back one level at a time
+	@Test
+	public void testMarkRollback() {
+		Board br = new Board(4, 8);
+		Piece[] p = Piece.getPieces();
+		br.place(p[Piece.SQUARE], 0, 0);
+		br.commit();
+		String start = br.toString();
+
+		int outer = br.mark();
+		br.place(p[Piece.SQUARE], 2, 0);
+		assertEquals(2, br.clearRows());
+		br.commit();
+		assertEquals(0, br.getMaxHeight());
+		String middle = br.toString();
+
+		int inner = br.mark();
+		br.place(p[Piece.STICK], 0, 0);
+		br.commit();
+		br.place(p[Piece.STICK], 3, 0);
+		br.undo();
+		br.place(p[Piece.STICK], 1, 0);
+		br.commit();
+		assertEquals(2, br.getMarkDepth());
+		assertEquals(4, br.getColumnHeight(1));
+
+		br.rollbackTo(inner);
+		assertEquals(middle, br.toString());
+		assertEquals(0, br.getColumnHeight(1));
+		assertEquals(1, br.getMarkDepth());
+
+		br.rollbackTo(outer);
+		assertEquals(start, br.toString());
+		assertEquals(2, br.getMaxHeight());
+		assertEquals(2, br.getRowWidth(0));
+		assertEquals(0, br.getMarkDepth());
+		br.sanityCheck();
+	}
+
+	// Same blocks reached in a different order give the same hash,
+	// and undo brings the old hash back
+	@Test
+	public void testHash() {
+		Piece[] p = Piece.getPieces();
+		Board a = new Board(4, 8);
+		Board c = new Board(4, 8);
+		assertEquals(0, a.getHash());
+
+		a.place(p[Piece.SQUARE], 0, 0);
+		a.commit();
+		long square = a.getHash();
+		a.place(p[Piece.STICK], 3, 0);
+		a.commit();
+
+		c.place(p[Piece.STICK], 3, 0);
+		c.commit();
+		assertTrue(c.getHash() != a.getHash());
+		c.place(p[Piece.SQUARE], 0, 0);
+		c.commit();
+		assertEquals(a.getHash(), c.getHash());
+
+		long before = a.getHash();
+		a.place(p[Piece.SQUARE], 1, 2);
+		assertTrue(a.getHash() != before);
+		a.undo();
+		assertEquals(before, a.getHash());
+
+		// filling the two bottom rows and clearing them leaves only the stick top
+		a.place(new Piece("0 0  0 1"), 2, 0);
+		assertEquals(2, a.clearRows());
+		Board stickTop = new Board(4, 8);
+		stickTop.place(new Piece("0 0  0 1"), 3, 0);
+		assertEquals(stickTop.getHash(), a.getHash());
+		a.sanityCheck();
+		a.undo();
+		assertEquals(before, a.getHash());
+		assertTrue(square != before);
+	}
+
+	// On a tall board only the rows above the lowest cleared row move,
+	// and a column whose top block is cleared finds its next block down
+	@Test
+	public void testClearTallBoard() {
+		Board br = new Board(3, 1000);
+		Piece[] p = Piece.getPieces();
+		br.place(p[Piece.STICK], 0, 0);
+		br.commit();
+		br.place(p[Piece.STICK], 2, 500);
+		br.commit();
+		br.place(new Piece("0 0  1 0"), 0, 600);
+		br.commit();
+		assertEquals(601, br.getMaxHeight());
+		assertEquals(Board.PLACE_ROW_FILLED, br.place(new Piece("0 0"), 2, 600));
+		assertEquals(1, br.clearRows());
+		assertEquals(4, br.getColumnHeight(0));
+		assertEquals(0, br.getColumnHeight(1));
+		assertEquals(504, br.getColumnHeight(2));
+		assertEquals(504, br.getMaxHeight());
+		br.undo();
+		assertEquals(601, br.getColumnHeight(0));
+		assertEquals(601, br.getColumnHeight(1));
+		assertEquals(504, br.getColumnHeight(2));
+		br.sanityCheck();
+	}
+
+	// The tracked aggregates after a couple of placements, a clear and an undo
+	@Test
+	public void testFeatures() {
+		Board br = new Board(4, 8);
+		assertNull(br.getFeatures());
+		br.setFeatureTracking(true);
+		Board.Features f = br.getFeatures();
+		Piece[] p = Piece.getPieces();
+
+		br.place(p[Piece.STICK], 0, 0);
+		br.commit();
+		br.place(new Piece("0 1  1 1"), 1, 0);	// hangs over two holes
+		br.commit();
+		// heights 4 2 2 0
+		assertEquals(6, f.getBlocks());
+		assertEquals(8, f.getAggregateHeight());
+		assertEquals(2, f.getHoles());
+		assertEquals(4, f.getBumpiness());
+		assertEquals(2, f.getWells());
+		assertEquals(8, f.getRowTransitions());
+
+		assertEquals(Board.PLACE_ROW_FILLED, br.place(new Piece("0 0  0 1"), 3, 0));
+		assertEquals(1, br.clearRows());
+		// heights 3 0 0 1, the holes opened up
+		assertEquals(4, f.getBlocks());
+		assertEquals(4, f.getAggregateHeight());
+		assertEquals(0, f.getHoles());
+		assertEquals(4, f.getBumpiness());
+		assertEquals(0, f.getWells());
+		assertEquals(6, f.getRowTransitions());
+		br.sanityCheck();
+
+		br.undo();
+		assertEquals(6, f.getBlocks());
+		assertEquals(2, f.getHoles());
+		assertEquals(4, f.getBumpiness());
+		assertEquals(2, f.getWells());
+		assertEquals(8, f.getRowTransitions());
+		br.sanityCheck();
+	}
+
+	// The batch drop heights agree with dropHeight() for every x of every rotation
+	@Test
+	public void testDropHeights() {
+		Board br = new Board(7, 12);
+		Piece[] p = Piece.getPieces();
+		br.place(p[Piece.L1], 0, 0);
+		br.commit();
+		br.place(p[Piece.S2].fastRotation(), 3, 0);
+		br.commit();
+		br.place(p[Piece.STICK], 6, 0);
+		br.commit();
+		int[][] out = new int[4][br.getWidth()];
+		for (Piece piece : p){
+			int rotations = br.dropHeights(piece, out);
+			Piece current = piece;
+			for (int r=0; r<rotations; ++r){
+				int count = br.dropHeights(current, out[r]);
+				assertEquals(br.getWidth() - current.getWidth() + 1, count);
+				for (int x=0; x<count; ++x){
+					assertEquals(br.dropHeight(current, x), out[r][x]);
+				}
+				current = current.fastRotation();
+			}
+			assertTrue(current == piece);
+		}
+	}
+
+	// With the checks off, a clear costs the same on a board a thousand times taller
+	@Test
+	public void testClearCostIndependentOfHeight(){
+		long low = clearNanos(200);
+		long tall = clearNanos(200000);
+		assertTrue("200 rows " + low + " ns, 200000 rows " + tall + " ns", tall < low * 10 + 1000000);
+	}
+
+	// the best of a few timings of filling and clearing the bottom row 2000 times
+	private long clearNanos(int height){
+		Board board = new Board(4, height);
+		board.setDebug(false);
+		Piece flat = Piece.getPieces()[Piece.STICK].fastRotation();
+		long best = Long.MAX_VALUE;
+		for (int round=0; round<8; ++round){
+			long start = System.nanoTime();
+			for (int i=0; i<2000; ++i){
+				board.place(flat, 0, 0);
+				assertEquals(1, board.clearRows());
+				board.commit();
+			}
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best;
+	}
+
+	private void assertSameBoard(Board expected, Board actual) {
+		assertEquals(expected.toString(), actual.toString());
+		assertEquals(expected.getMaxHeight(), actual.getMaxHeight());
+		assertEquals(expected.getHash(), actual.getHash());
+		for (int x=0; x<expected.getWidth(); ++x){
+			assertEquals(expected.getColumnHeight(x), actual.getColumnHeight(x));
+		}
+		for (int y=0; y<expected.getHeight(); ++y){
+			assertEquals(expected.getRowWidth(y), actual.getRowWidth(y));
+		}
+	}
 }
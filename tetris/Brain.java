@@ -25,4 +25,26 @@ public interface Brain {
      (just to save the memory allocation).
     */
     public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move);
+    
+    /**
+     As bestMove() above, but also told the pieces that will come after
+     this one, soonest first, as the next-piece preview shows them.
+     Brains that do not look ahead just ignore them.
+    */
+    default Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight, Brain.Move move) {
+        return bestMove(board, piece, limitHeight, move);
+    }
+    
+    /**
+     As bestMove(), but returns the move packed into a long, see
+     PackedMove, or PackedMove.NONE if no play is possible.
+     Brains that can search without allocating override this;
+     this version goes through a Brain.Move.
+     The piece must come from a PieceCatalog.
+    */
+    default long bestMovePacked(Board board, Piece piece, int limitHeight) {
+        Brain.Move move = bestMove(board, piece, limitHeight, null);
+        if (move == null) return PackedMove.NONE;
+        return PackedMove.pack(move.x, move.y, move.piece.getId(), move.score);
+    }
 }
@@ -2,6 +2,8 @@
 
 package tetris;
 
+import java.util.concurrent.*;
+
 /**
  Provided code.
  A simple Brain implementation.
@@ -14,9 +16,61 @@ package tetris;
  play with the lowest score. Undo() is used to back-out
  each play before trying the next. To experiment with writing your own
  brain -- just subclass off DefaultBrain and override rateBoard().
+ 
+ With setParallel(true) the plays are split across the common
+ fork-join pool instead, each worker on its own copy of the board.
+ The answer is exactly the sequential one -- ties still go to the
+ first play in rotation, then x, order -- only sooner when rateBoard()
+ is expensive or the board is wide. rateBoard() must then be safe to
+ call from several threads at once, as this one is.
 */
 
 public class DefaultBrain implements Brain {
+    // landing heights of the rotation being tried, one array per thread
+    private static final ThreadLocal<int[]> drops = new ThreadLocal<int[]>();
+    // plays of the piece being placed, one list per thread
+    private static final ThreadLocal<MoveList> moveLists = new ThreadLocal<MoveList>();
+    // move generators for setReachable(), one per thread
+    private static final ThreadLocal<ReachableMoves> reachables = new ThreadLocal<ReachableMoves>();
+    
+    private boolean parallel;
+    private boolean reachable;
+    private EvaluationCache cache;
+    
+    /**
+     Has rateBoard() results kept in the given cache, or not for null,
+     so that a board reached again is not rated again. Works for any
+     subclass's rateBoard(), which is called as before on a miss; the
+     cache must only be shared by brains that rate boards the same way.
+    */
+    public void setEvaluationCache(EvaluationCache cache) {
+        this.cache = cache;
+    }
+    
+    public EvaluationCache getEvaluationCache() {
+        return cache;
+    }
+    
+    
+    /**
+     Turns the parallel search described above on or off.
+    */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+    
+    /**
+     With true, generateMoves() gives the plays a player could reach
+     from where the piece comes on, sliding and rotating on the way
+     down -- see ReachableMoves -- instead of straight drops. The
+     moves then need playing at their y, as GameEngine.playGame()
+     does; JTetris only steers pieces straight down.
+    */
+    public void setReachable(boolean reachable) {
+        this.reachable = reachable;
+    }
+    
+    
     /**
      Given a piece and a board, returns a move object that represents
      the best play for that piece, or returns null if no play is possible.
@@ -26,53 +80,254 @@ public class DefaultBrain implements Brain {
         // Allocate a move object if necessary
         if (move==null) move = new Brain.Move();
         
-        double bestScore = 1e20;
-        int bestX = 0;
-        int bestY = 0;
-        Piece bestPiece = null;
-        Piece current = piece;
+        MoveList moves = moveBuffer();
+        int best = searchPlays(board, piece, limitHeight, moves);
         
+        if (best < 0) return(null);    // could not find a play at all!
+        else {
+            move.x = moves.getX(best);
+            move.y = moves.getY(best);
+            move.piece = moves.getPiece(best);
+            move.score = moves.getScore(best);
+            return(move);
+        }
+    }
+    
+    
+    /**
+     The same search as bestMove(), with the answer packed into a long
+     (see PackedMove), PackedMove.NONE if no play is possible. Once
+     warmed up it allocates nothing, unless in parallel mode.
+     The piece must come from a PieceCatalog.
+    */
+    public long bestMovePacked(Board board, Piece piece, int limitHeight) {
+        MoveList moves = moveBuffer();
+        int best = searchPlays(board, piece, limitHeight, moves);
+        if (best < 0) return PackedMove.NONE;
+        return PackedMove.pack(moves.getX(best), moves.getY(best),
+                moves.getPiece(best).getId(), moves.getScore(best));
+    }
+    
+    
+    /**
+     * fills moves with the plays of the piece and finds the best,
+     * returning its index, or -1 if there is none;
+     * its score is left in moves
+     * */
+    private int searchPlays(Board board, Piece piece, int limitHeight, MoveList moves) {
         board.commit();
+        // holes and heights are then kept by the board, see rateBoard();
+        // the caller's setting is put back after
+        boolean tracked = board.isFeatureTracking();
+        board.setFeatureTracking(true);
+        try {
+            generateMoves(board, piece, limitHeight, moves);
+            
+            if (parallel) {
+                Play play = ForkJoinPool.commonPool().invoke(new Search(board, moves, 0, moves.size()));
+                if (play.index >= 0) moves.setScore(play.index, play.score);
+                return play.index;
+            }
+            
+            int best = -1;
+            double bestScore = 1e20;
+            for (int i=0; i<moves.size(); i++) {
+                double score = ratePlay(board, moves.getPiece(i), moves.getX(i), moves.getY(i));
+                moves.setScore(i, score);
+                if (score<bestScore) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+            return best;
+        }
+        finally {
+            board.setFeatureTracking(tracked);
+        }
+    }
+    
+    
+    /**
+     Fills moves with every play of the piece: each rotation, at
+     each x where it fits, dropped straight down, and not sticking
+     up above limitHeight. The order is rotation by fastRotation()
+     from the given one, then x -- the order ties are settled in.
+     With setReachable(true), the reachable plays instead.
+     Does not change the board.
+    */
+    protected void generateMoves(Board board, Piece piece, int limitHeight, MoveList moves) {
+        if (reachable) {
+            ReachableMoves generator = reachables.get();
+            if (generator == null) {
+                generator = new ReachableMoves();
+                reachables.set(generator);
+            }
+            generator.generate(board, piece, limitHeight, moves);
+            return;
+        }
+        
+        moves.clear();
+        int[] dropY = dropBuffer(board.getWidth());
+        Piece current = piece;
         
         // loop through all the rotations
         while (true) {
             final int yBound = limitHeight - current.getHeight()+1;
-            final int xBound = board.getWidth() - current.getWidth()+1;
+            final int xBound = board.dropHeights(current, dropY);
             
             // For current rotation, try all the possible columns
             for (int x = 0; x<xBound; x++) {
-                int y = board.dropHeight(current, x);
-                if (y<yBound) {    // piece does not stick up too far
-                    int result = board.place(current, x, y);
-                    if (result <= Board.PLACE_ROW_FILLED) {
-                        if (result == Board.PLACE_ROW_FILLED) board.clearRows();
-                        
-                        double score = rateBoard(board);
-                        
-                        if (score<bestScore) {
-                            bestScore = score;
-                            bestX = x;
-                            bestY = y;
-                            bestPiece = current;
-                        }
-                    }
-                    
-                    board.undo();    // back out that play, loop around for the next
+                if (dropY[x]<yBound) {    // piece does not stick up too far
+                    moves.add(current, x, dropY[x]);
                 }
             }
             
             current = current.fastRotation();
             if (current == piece) break;    // break if back to original rotation
         }
+    }
+    
+    
+    /**
+     Makes the play on the board, rates the result with rateMove(),
+     and backs the play out again. Returns 1e20, worse than any
+     board, if the play cannot be made. The board must be committed.
+    */
+    protected double ratePlay(Board board, Piece piece, int x, int y) {
+        double score = 1e20;
+        int result = board.place(piece, x, y);
+        if (result <= Board.PLACE_ROW_FILLED) {
+            int eroded = 0;
+            if (result == Board.PLACE_ROW_FILLED) {
+                eroded = erodedCells(board, piece, y);
+                board.clearRows();
+            }
+            score = rateMove(board, piece, x, y, eroded);
+        }
+        board.undo();    // back out that play, loop around for the next
+        return score;
+    }
+    
+    
+    /**
+     Rates the board just after the piece was played at x,y and the
+     full rows cleared -- larger numbers for worse. erodedCells is
+     the rows that play cleared times the piece's blocks in them.
+     This version is rateBoard() of the board alone, through the
+     evaluation cache if there is one; override it to rate the move
+     itself too.
+    */
+    protected double rateMove(Board board, Piece piece, int x, int y, int erodedCells) {
+        return cachedRating(board);
+    }
+    
+    
+    /**
+     * rows the piece just placed at y fills, times its blocks in those rows
+     * */
+    private static int erodedCells(Board board, Piece piece, int y) {
+        long[] masks = piece.getRowMasks();
+        int rows = 0;
+        int cells = 0;
+        for (int i=0; i<masks.length; i++) {
+            if (board.getRowWidth(y + i) == board.getWidth()) {
+                rows++;
+                cells += Long.bitCount(masks[i]);
+            }
+        }
+        return rows * cells;
+    }
+    
+    
+    /**
+     * rateBoard(), through the cache when there is one
+     * */
+    private double cachedRating(Board board) {
+        EvaluationCache cache = this.cache;
+        if (cache == null) return rateBoard(board);
+        double score = cache.get(board.getHash(), EvaluationCache.NO_PIECE);
+        if (Double.isNaN(score)) {    // not there
+            score = rateBoard(board);
+            cache.put(board.getHash(), EvaluationCache.NO_PIECE, score);
+        }
+        return score;
+    }
+    
+    
+    // the best play a Search found, index -1 if none
+    private static class Play {
+        double score = 1e20;
+        int index = -1;
+    }
+    
+    // plays below this many are tried by one task -- each task copies the board
+    private static final int PLAYS_PER_TASK = 8;
+    
+    /**
+     * finds the best of plays [from, to), on its own copy of the board
+     * when there are few enough of them, else by splitting them in half;
+     * the lower half wins ties, as it would have come first
+     * */
+    private class Search extends RecursiveTask<Play> {
+        private final Board board;
+        private final MoveList moves;
+        private final int from, to;
         
-        if (bestPiece == null) return(null);    // could not find a play at all!
-        else {
-            move.x = bestX;
-            move.y = bestY;
-            move.piece = bestPiece;
-            move.score = bestScore;
-            return(move);
+        Search(Board board, MoveList moves, int from, int to) {
+            this.board = board;
+            this.moves = moves;
+            this.from = from;
+            this.to = to;
+        }
+        
+        protected Play compute() {
+            if (to - from > PLAYS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                Search high = new Search(board, moves, middle, to);
+                high.fork();
+                Play low = new Search(board, moves, from, middle).compute();
+                Play other = high.join();
+                return other.score < low.score ? other : low;
+            }
+            
+            Play best = new Play();
+            Board copy = new Board(board);
+            for (int i=from; i<to; i++) {
+                double score = ratePlay(copy, moves.getPiece(i), moves.getX(i), moves.getY(i));
+                if (score<best.score) {
+                    best.score = score;
+                    best.index = i;
+                }
+            }
+            return best;
+        }
+    }
+    
+    
+    /**
+     Returns this thread's scratch list of plays.
+    */
+    protected static MoveList moveBuffer() {
+        MoveList moves = moveLists.get();
+        if (moves == null) {
+            moves = new MoveList();
+            moveLists.set(moves);
         }
+        return moves;
+    }
+    
+    
+    /**
+     Returns this thread's scratch array for landing heights,
+     at least the given length.
+    */
+    protected static int[] dropBuffer(int length) {
+        int[] buffer = drops.get();
+        if (buffer == null || buffer.length < length) {
+            buffer = new int[length];
+            drops.set(buffer);
+        }
+        return buffer;
     }
     
     
@@ -82,26 +337,35 @@ public class DefaultBrain implements Brain {
      that board position -- larger numbers for worse boards.
      This version just counts the height
      and the number of "holes" in the board.
+     When the board tracks its features both are read
+     from it directly rather than counted.
     */
     public double rateBoard(Board board) {
         final int width = board.getWidth();
         final int maxHeight = board.getMaxHeight();
+        final Board.Features features = board.getFeatures();
         
         int sumHeight = 0;
         int holes = 0;
         
-        // Count the holes, and sum up the heights
-        for (int x=0; x<width; x++) {
-            final int colHeight = board.getColumnHeight(x);
-            sumHeight += colHeight;
-            
-            int y = colHeight - 2;    // addr of first possible hole
-            
-            while (y>=0) {
-                if  (!board.getGrid(x,y)) {
-                    holes++;
+        if (features != null) {
+            sumHeight = features.getAggregateHeight();
+            holes = features.getHoles();
+        }
+        else {
+            // Count the holes, and sum up the heights
+            for (int x=0; x<width; x++) {
+                final int colHeight = board.getColumnHeight(x);
+                sumHeight += colHeight;
+                
+                int y = colHeight - 2;    // addr of first possible hole
+                
+                while (y>=0) {
+                    if  (!board.getGrid(x,y)) {
+                        holes++;
+                    }
+                    y--;
                 }
-                y--;
             }
         }
         
@@ -0,0 +1,115 @@
+package tetris;
+
+import static org.junit.Assert.*;
+import java.util.*;
+
+import org.junit.*;
+
+/*
+  Unit test for DefaultBrain -- the parallel search must agree with the sequential one.
+ */
+public class DefaultBrainTest {
+
+	// Same move, same score, on every board of a few games, wide board included
+	@Test
+	public void testParallelSameMove() {
+		DefaultBrain parallel = new DefaultBrain();
+		parallel.setParallel(true);
+		for (int width : new int[] {10, 40}) {
+			GameEngine engine = new GameEngine(width, 20, 4);
+			engine.setPieceLimit(60);
+			engine.startGame(new Random(width));
+			SameMoves.assertSameGame(engine, new DefaultBrain(), parallel, 0, null);
+		}
+	}
+
+	// A copied board is independent of the original
+	@Test
+	public void testBoardCopy() {
+		Board board = new Board(5, 8);
+		board.place(Piece.getPieces()[Piece.L1], 0, 0);
+		board.commit();
+		board.setFeatureTracking(true);
+		Board copy = new Board(board);
+		assertEquals(board.toString(), copy.toString());
+		assertEquals(board.getHash(), copy.getHash());
+		assertEquals(board.getFeatures().getHoles(), copy.getFeatures().getHoles());
+
+		copy.place(Piece.getPieces()[Piece.SQUARE], 3, 0);
+		copy.sanityCheck();
+		assertEquals(1, board.getColumnHeight(1));
+		assertEquals(2, copy.getColumnHeight(3));
+		copy.undo();
+		assertEquals(board.toString(), copy.toString());
+	}
+
+	// The packed answer is the same move, and once warmed up costs no allocation
+	@Test
+	public void testPackedNoAllocation() {
+		DefaultBrain brain = new DefaultBrain();
+		List<Board> boards = new ArrayList<Board>();
+		List<Piece> pieces = new ArrayList<Piece>();
+		GameEngine engine = new GameEngine(10, 20, 4);
+		engine.setPieceLimit(40);
+		engine.startGame(new Random(9));
+		Brain.Move move = new Brain.Move();
+		while (engine.isGameOn()) {
+			Board board = engine.getBoard();
+			board.undo();
+			boards.add(new Board(board));
+			pieces.add(engine.getCurrentPiece());
+			brain.bestMove(board, engine.getCurrentPiece(), 20, move);
+			long packed = brain.bestMovePacked(board, engine.getCurrentPiece(), 20);
+			assertEquals(move.x, PackedMove.getX(packed));
+			assertEquals(move.y, PackedMove.getY(packed));
+			assertSame(move.piece, PackedMove.getPiece(packed, engine.getCurrentPiece()));
+			assertEquals((float) move.score, PackedMove.getScore(packed), 0);
+			engine.playMove(move.piece, move.x);
+		}
+		assertEquals(PackedMove.NONE, brain.bestMovePacked(new Board(3, 3), Piece.getPieces()[Piece.STICK], 3));
+
+		java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+		long thread = Thread.currentThread().getId();
+
+		// the JIT allocates a little while it compiles, so wait for a quiet
+		// stretch: steady state is 5 rounds in a row allocating nothing
+		long sum = 0;
+		int quiet = 0;
+		for (int round=0; round<200 && quiet<5; ++round) {
+			long before = bean.getThreadAllocatedBytes(thread);
+			for (int i=0; i<boards.size(); ++i) sum += brain.bestMovePacked(boards.get(i), pieces.get(i), 20);
+			long allocated = bean.getThreadAllocatedBytes(thread) - before;
+			quiet = allocated == 0 ? quiet + 1 : 0;
+		}
+		assertTrue(sum != 0);
+		assertEquals(5, quiet);
+	}
+
+	// A search leaves the caller's board tracking its features as it was, whichever brain did it
+	@Test
+	public void testTrackingLeftAlone() {
+		MonteCarloBrain monteCarlo = new MonteCarloBrain(new DefaultBrain(), 8, 2);
+		DefaultBrain parallel = new DefaultBrain();
+		parallel.setParallel(true);
+		Brain[] brains = {new DefaultBrain(), parallel, new LookaheadBrain(), monteCarlo, new ExpectimaxBrain(1, 2)};
+		Piece[] pieces = Piece.getPieces();
+		Piece[] preview = {pieces[Piece.PYRAMID], pieces[Piece.S1]};
+
+		for (boolean tracked : new boolean[] {false, true}) {
+			for (Brain brain : brains) {
+				Board board = new Board(10, 24);
+				board.place(pieces[Piece.L1], 0, 0);
+				board.commit();
+				board.setFeatureTracking(tracked);
+				assertNotNull(brain.bestMove(board, pieces[Piece.STICK], preview, 20, null));
+				assertEquals(tracked, board.isFeatureTracking());
+			}
+			Board board = new Board(10, 24);
+			board.setFeatureTracking(tracked);
+			new Adversary(new DefaultBrain()).rank(board, pieces, 20);
+			assertEquals(tracked, board.isFeatureTracking());
+		}
+	}
+}
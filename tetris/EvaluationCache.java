@@ -0,0 +1,181 @@
+// EvaluationCache.java
+package tetris;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ A fixed-size table of board evaluations, so that a search that
+ reaches the same board by different move orders rates it only once.
+ Entries are keyed by a Board.getHash() and a piece id -- NO_PIECE
+ when the value is for the board alone, as rateBoard() gives it, or
+ a Piece.getId() when it is for the board with that piece to come.
+ A cache belongs to one way of rating: brains that rate differently
+ must not share one.
+
+ <p>
+ The table is open-addressed over primitive arrays, nothing is
+ allocated per entry. A key may sit in any of the PROBES slots after
+ its home slot; when they are all taken, the slot to reuse is picked
+ clock-fashion -- an entry that was read since it last survived an
+ eviction gets a second chance.
+
+ <p>
+ Several threads may use one cache without locking. Each slot stores
+ its key XORed with its value, so a slot torn by two threads writing
+ at once just reads as a miss. The counters are LongAdders.
+*/
+public class EvaluationCache {
+	/**  The piece id to use for values that depend on the board alone.  */
+	public static final int NO_PIECE = -1;
+
+	private static final int PROBES = 8;
+
+	// slot states
+	private static final byte EMPTY = 0;
+	private static final byte STORED = 1;
+	private static final byte READ = 2;	// read since last given a second chance
+
+	private final long[] checks;		// key ^ value bits
+	private final long[] values;		// Double.doubleToRawLongBits of the value
+	private final byte[] states;
+	private final int mask;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder stores = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+
+	/**
+	 Creates a cache of at least the given number of entries
+	 (rounded up to a power of two).
+	*/
+	public EvaluationCache(int capacity) {
+		if (capacity < 1 || capacity > 1 << 30) {
+			throw new RuntimeException("Bad cache capacity " + capacity);
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) size <<= 1;
+		size = Math.max(size, PROBES);
+		checks = new long[size];
+		values = new long[size];
+		states = new byte[size];
+		mask = size - 1;
+	}
+
+
+	/**
+	 * the key of a board hash and piece id, mixed so
+	 * that its low bits make a good home slot
+	 * */
+	private static long key(long hash, int pieceId) {
+		long key = hash ^ ((pieceId + 2) * 0x9E3779B97F4A7C15L);
+		key = (key ^ (key >>> 31)) * 0xBF58476D1CE4E5B9L;
+		key ^= key >>> 29;
+		return key;
+	}
+
+
+	/**
+	 Returns the value stored for the board hash and piece id,
+	 or NaN if there is none.
+	*/
+	public double get(long hash, int pieceId) {
+		long key = key(hash, pieceId);
+		int home = (int) key & mask;
+		for (int i=0; i<PROBES; ++i) {
+			int slot = (home + i) & mask;
+			if (states[slot] == EMPTY) break;
+			long value = values[slot];
+			if ((checks[slot] ^ value) == key) {
+				states[slot] = READ;
+				hits.increment();
+				return Double.longBitsToDouble(value);
+			}
+		}
+		misses.increment();
+		return Double.NaN;
+	}
+
+
+	/**
+	 Stores the value for the board hash and piece id, making
+	 room by evicting an older entry if need be.
+	*/
+	public void put(long hash, int pieceId, double score) {
+		long key = key(hash, pieceId);
+		long value = Double.doubleToRawLongBits(score);
+		int home = (int) key & mask;
+
+		int victim = -1;
+		for (int i=0; i<PROBES; ++i) {
+			int slot = (home + i) & mask;
+			if (states[slot] == EMPTY || (checks[slot] ^ values[slot]) == key) {
+				victim = slot;
+				break;
+			}
+		}
+		if (victim < 0) {
+			// all taken: the first entry not read lately goes, others get their second chance
+			for (int i=0; i<PROBES && victim < 0; ++i) {
+				int slot = (home + i) & mask;
+				if (states[slot] == READ) states[slot] = STORED;
+				else victim = slot;
+			}
+			if (victim < 0) victim = home;
+			evictions.increment();
+		}
+		values[victim] = value;
+		checks[victim] = key ^ value;
+		states[victim] = STORED;
+		stores.increment();
+	}
+
+
+	/**
+	 Empties the cache. The counters are kept.
+	*/
+	public void clear() {
+		java.util.Arrays.fill(states, EMPTY);
+	}
+
+	/**
+	 Returns the number of entries the cache can hold.
+	*/
+	public int getCapacity() {
+		return states.length;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getStores() {
+		return stores.sum();
+	}
+
+	/**
+	 Returns how many entries were pushed out to make room for others.
+	*/
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 Returns the fraction of lookups that found a value, 0 before any.
+	*/
+	public double getHitRate() {
+		long hit = getHits();
+		long total = hit + getMisses();
+		return total == 0 ? 0 : (double) hit / total;
+	}
+
+	public String toString() {
+		return String.format("hits %d misses %d (%.1f%%) stores %d evictions %d",
+				getHits(), getMisses(), 100 * getHitRate(), getStores(), getEvictions());
+	}
+}
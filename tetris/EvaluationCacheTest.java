@@ -0,0 +1,86 @@
+package tetris;
+
+import static org.junit.Assert.*;
+import java.util.*;
+
+import org.junit.*;
+
+/*
+  Unit test for EvaluationCache.
+ */
+public class EvaluationCacheTest {
+
+	// Values come back for the same hash and piece only
+	@Test
+	public void testGetPut() {
+		EvaluationCache cache = new EvaluationCache(100);
+		assertEquals(128, cache.getCapacity());
+		assertTrue(Double.isNaN(cache.get(42, EvaluationCache.NO_PIECE)));
+		cache.put(42, EvaluationCache.NO_PIECE, 1.5);
+		cache.put(42, 3, -2.25);
+		assertEquals(1.5, cache.get(42, EvaluationCache.NO_PIECE), 0);
+		assertEquals(-2.25, cache.get(42, 3), 0);
+		assertTrue(Double.isNaN(cache.get(43, 3)));
+		cache.put(42, 3, 7);
+		assertEquals(7, cache.get(42, 3), 0);
+		assertEquals(3, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(0, cache.getEvictions());
+		assertEquals(0.6, cache.getHitRate(), 1e-9);
+
+		cache.clear();
+		assertTrue(Double.isNaN(cache.get(42, 3)));
+	}
+
+	// A full cache evicts, and what was read lately survives longest
+	@Test
+	public void testEviction() {
+		EvaluationCache cache = new EvaluationCache(8);
+		for (long hash=0; hash<100; ++hash) {
+			cache.put(hash, 0, hash);
+			assertEquals(hash, cache.get(hash, 0), 0);	// last one in is always there
+		}
+		assertEquals(92, cache.getEvictions());
+		int kept = 0;
+		for (long hash=0; hash<100; ++hash) {
+			double value = cache.get(hash, 0);
+			if (!Double.isNaN(value)) {
+				assertEquals(hash, value, 0);
+				kept++;
+			}
+		}
+		assertEquals(8, kept);
+	}
+
+	// Brains with a cache play the same moves, for any rateBoard()
+	@Test
+	public void testBrainsSameMoves() {
+		DefaultBrain[] plain = {new DefaultBrain(), new BadBrain(), new LookaheadBrain()};
+		DefaultBrain[] cached = {new DefaultBrain(), new BadBrain(), new LookaheadBrain()};
+		EvaluationCache[] caches = new EvaluationCache[plain.length];
+		for (int b=0; b<plain.length; ++b) {
+			caches[b] = new EvaluationCache(1 << 12);
+			cached[b].setEvaluationCache(caches[b]);
+
+			GameEngine engine = new GameEngine(10, 20, 4);
+			engine.setPreviewSize(2);
+			engine.setPieceLimit(40);
+			engine.startGame(new Random(b));
+			Brain.Move expected = new Brain.Move();
+			Brain.Move actual = new Brain.Move();
+			while (engine.isGameOn()) {
+				Board board = engine.getBoard();
+				board.undo();
+				Piece piece = engine.getCurrentPiece();
+				if (plain[b].bestMove(board, piece, engine.getPreview(), 20, expected) == null) break;
+				assertNotNull(cached[b].bestMove(board, piece, engine.getPreview(), 20, actual));
+				assertSame(expected.piece, actual.piece);
+				assertEquals(expected.x, actual.x);
+				assertEquals(expected.score, actual.score, 0);
+				engine.playMove(expected.piece, expected.x);
+			}
+		}
+		// the lookahead reaches the same boards over and over
+		assertTrue(caches[2].getHitRate() > 0.2);
+	}
+}
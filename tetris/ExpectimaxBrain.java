@@ -0,0 +1,367 @@
+// ExpectimaxBrain.java
+
+package tetris;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ A brain that searches the game tree with the piece to come as a
+ chance: max nodes choose among the plays of a piece (the lowest
+ rating is best, as everywhere), chance nodes average over the piece
+ that comes next. Pieces in the preview are known and need no chance
+ node; depth counts the pieces after the current one that are looked
+ at, known or not.
+
+ <p>
+ The chance is JBrainTetris's: with probability 1 - adversary, a piece
+ picked uniformly (as JTetris.pickNextPiece() does); with probability
+ adversary, the worst piece that can still be played. "Worst" is the
+ piece whose max node comes out highest -- at the last level that is
+ the piece Adversary would pick, deeper it is the searched value.
+
+ <p>
+ Below the root, only the best width plays of a piece by their own
+ rating are searched further; the others are pruned. The value of
+ each max node is kept in the evaluation cache, keyed by the board,
+ the piece and the depth left, as are the boards rated at the leaves --
+ so a board reached in several chance branches, or by playing two
+ pieces in either order, is searched once. The cache comes with the
+ brain and lives across moves; it is emptied when the adversary, the
+ pieces or limitHeight change, and must only be shared with brains
+ that search the same way.
+
+ <p>
+ The plays of the current piece are split across the common
+ fork-join pool, each task on its own copy of the board, rolling back
+ to marks as it goes: the board must undo by journal, as
+ Board(width, height) boards do. The answer does not depend on the
+ split. getNodes(), getChanceNodes(), getPruned() and getCacheHits()
+ count what the last bestMove() did. Not thread safe.
+*/
+public class ExpectimaxBrain extends DefaultBrain {
+    /**  The value of a piece that cannot be played at all.  */
+    public static final double LOST = 1e6;
+
+    // added to the board hash per level left, so values at different depths do not mix
+    private static final long DEPTH_SALT = 0x9E3779B97F4A7C15L;
+
+    private final int depth;
+    private final int width;
+    private double adversary;
+    private Piece[] pieces = Piece.getPieces();
+    private int lastLimitHeight = -1;    // the limitHeight the cached values were searched with
+
+    private final MoveList plays = new MoveList();
+    private double[] values = new double[0];
+
+    // counts for the last bestMove()
+    private final LongAdder nodes = new LongAdder();
+    private final LongAdder chanceNodes = new LongAdder();
+    private final LongAdder pruned = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+
+    /**
+     Creates a brain that looks two pieces ahead, searching the
+     best 4 plays of each piece.
+    */
+    public ExpectimaxBrain() {
+        this(2, 4);
+    }
+
+    public ExpectimaxBrain(int depth, int width) {
+        this.depth = depth;
+        this.width = width;
+        setEvaluationCache(new EvaluationCache(1 << 18));
+    }
+
+
+    /**
+     Sets the chance, 0..1, that the next piece is the worst one
+     rather than a random one. Empties the evaluation cache, whose
+     chance values were worked out with the old one.
+    */
+    public void setAdversary(double adversary) {
+        if (adversary != this.adversary) clearCache();
+        this.adversary = adversary;
+    }
+
+    /**
+     Sets the pieces chance nodes choose from -- those of the game.
+     Empties the evaluation cache, as setAdversary() does.
+    */
+    public void setPieces(Piece[] pieces) {
+        if (pieces != this.pieces) clearCache();
+        this.pieces = pieces;
+    }
+
+    private void clearCache() {
+        if (getEvaluationCache() != null) getEvaluationCache().clear();
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**  Returns how many plays the last search rated.  */
+    public long getNodes() {
+        return nodes.sum();
+    }
+
+    /**  Returns how many chance nodes the last search averaged.  */
+    public long getChanceNodes() {
+        return chanceNodes.sum();
+    }
+
+    /**  Returns how many plays the last search left unsearched below the root.  */
+    public long getPruned() {
+        return pruned.sum();
+    }
+
+    /**  Returns how many max nodes the last search found in the cache.  */
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+
+    /**
+     With no preview every piece after this one is a chance.
+    */
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        return bestMove(board, piece, null, limitHeight, move);
+    }
+
+
+    /**
+     Returns the play of the piece with the lowest expected value.
+     See the Brain interface for details.
+    */
+    public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight, Brain.Move move) {
+        board.commit();
+        boolean tracked = board.isFeatureTracking();
+        board.setFeatureTracking(true);
+        try {
+            return searchTree(board, piece, preview, limitHeight, move);
+        }
+        finally {
+            board.setFeatureTracking(tracked);    // the caller's setting
+        }
+    }
+
+
+    /**
+     * bestMove() on a committed board that tracks its features
+     * */
+    private Brain.Move searchTree(Board board, Piece piece, Piece[] preview, int limitHeight, Brain.Move move) {
+        if (move==null) move = new Brain.Move();
+        nodes.reset();
+        chanceNodes.reset();
+        pruned.reset();
+        cacheHits.reset();
+
+        // values searched under another limit do not hold under this one
+        if (limitHeight != lastLimitHeight) clearCache();
+        lastLimitHeight = limitHeight;
+
+        generateMoves(board, piece, limitHeight, plays);
+        int count = plays.size();
+        if (count == 0) return(null);    // could not find a play at all!
+        if (values.length < count) values = new double[count];
+
+        ForkJoinPool.commonPool().invoke(new Root(board, preview, limitHeight, 0, count));
+
+        // ties go to the first play, as in DefaultBrain
+        int best = -1;
+        double bestScore = 1e20;
+        for (int i=0; i<count; i++) {
+            if (values[i] < bestScore) {
+                bestScore = values[i];
+                best = i;
+            }
+        }
+        if (best < 0) return(null);
+        move.x = plays.getX(best);
+        move.y = plays.getY(best);
+        move.piece = plays.getPiece(best);
+        move.score = bestScore;
+        return(move);
+    }
+
+
+    // root plays below this many are searched by one task -- each task copies the board
+    private static final int PLAYS_PER_TASK = 2;
+
+    /**
+     * searches the root plays [from, to) on its own copy of the board
+     * when there are few enough of them, else splits them in half
+     * */
+    private class Root extends RecursiveAction {
+        private final Board board;
+        private final Piece[] preview;
+        private final int limitHeight;
+        private final int from, to;
+
+        Root(Board board, Piece[] preview, int limitHeight, int from, int to) {
+            this.board = board;
+            this.preview = preview;
+            this.limitHeight = limitHeight;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from > PLAYS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Root(board, preview, limitHeight, from, middle),
+                        new Root(board, preview, limitHeight, middle, to));
+                return;
+            }
+
+            Search search = new Search(new Board(board), preview, limitHeight);
+            for (int i=from; i<to; i++) {
+                values[i] = search.play(plays.getPiece(i), plays.getX(i), plays.getY(i), 0);
+            }
+            search.count();
+        }
+    }
+
+
+    /**
+     * one task's search: its board, and a list of plays and their
+     * order for each level, so nothing is shared but the cache
+     * */
+    private class Search {
+        private final Board board;
+        private final Piece[] preview;
+        private final int limitHeight;
+        private final MoveList[] lists = new MoveList[depth + 1];
+        private final int[][] orders = new int[depth + 1][];
+        private final double[][] chances = new double[depth + 1][pieces.length];
+        private long nodeCount, chanceCount, prunedCount, hitCount;
+
+        Search(Board board, Piece[] preview, int limitHeight) {
+            this.board = board;
+            this.preview = preview;
+            this.limitHeight = limitHeight;
+            for (int level=0; level<=depth; level++) {
+                lists[level] = new MoveList();
+                orders[level] = new int[64];
+            }
+        }
+
+        /**
+         * the value of playing the piece at x,y as the level-th piece
+         * after the current one: its rating at the deepest level,
+         * else what comes after it
+         * */
+        double play(Piece piece, int x, int y, int level) {
+            nodeCount++;
+            if (level == depth) return ratePlay(board, piece, x, y);
+            int mark = board.mark();
+            double value = LOST;
+            int result = board.place(piece, x, y);
+            if (result <= Board.PLACE_ROW_FILLED) {
+                board.clearRows();
+                board.commit();
+                value = next(level + 1);
+            }
+            else board.undo();
+            board.rollbackTo(mark);
+            return value;
+        }
+
+        /**
+         * the value of the board with the level-th piece to come:
+         * known from the preview, or a chance node over the pieces
+         * */
+        private double next(int level) {
+            if (preview != null && level <= preview.length) return best(preview[level - 1], level);
+
+            chanceCount++;
+            double[] outcomes = chances[level];
+            double sum = 0;
+            int worst = -1;
+            for (int p=0; p<pieces.length; p++) {
+                outcomes[p] = best(pieces[p], level);
+                sum += outcomes[p];
+                if (outcomes[p] < LOST && (worst < 0 || outcomes[p] > outcomes[worst])) worst = p;
+            }
+            double uniform = sum / pieces.length;
+            if (worst < 0) return uniform;    // nothing can be played
+            return (1 - adversary) * uniform + adversary * outcomes[worst];
+        }
+
+        /**
+         * the max node: the best value of the plays of the piece,
+         * searching the best width of them further unless at the
+         * deepest level; LOST if there are none
+         * */
+        private double best(Piece piece, int level) {
+            // values with preview pieces still to come change from move to move
+            boolean cached = getEvaluationCache() != null && piece.getId() >= 0
+                    && (preview == null || level > preview.length);
+            long key = board.getHash() + (depth - level) * DEPTH_SALT;
+            if (cached) {
+                double value = getEvaluationCache().get(key, piece.getId());
+                if (!Double.isNaN(value)) {
+                    hitCount++;
+                    return value;
+                }
+            }
+
+            MoveList list = lists[level];
+            generateMoves(board, piece, limitHeight, list);
+            int count = list.size();
+            double value = LOST;
+            if (level == depth) {
+                for (int i=0; i<count; i++) {
+                    value = Math.min(value, play(list.getPiece(i), list.getX(i), list.getY(i), level));
+                }
+            }
+            else {
+                int[] order = order(list, level);
+                int expand = Math.min(count, width);
+                prunedCount += count - expand;
+                for (int k=0; k<expand; k++) {
+                    int i = order[k];
+                    if (list.getScore(i) >= 1e20) break;    // no playable plays left
+                    value = Math.min(value, play(list.getPiece(i), list.getX(i), list.getY(i), level));
+                }
+            }
+
+            if (cached) getEvaluationCache().put(key, piece.getId(), value);
+            return value;
+        }
+
+        /**
+         * rates the plays of the list and returns their indexes best
+         * first, ties in list order
+         * */
+        private int[] order(MoveList list, int level) {
+            int count = list.size();
+            if (orders[level].length < count) orders[level] = new int[count];
+            int[] order = orders[level];
+            for (int i=0; i<count; i++) {
+                list.setScore(i, ratePlay(board, list.getPiece(i), list.getX(i), list.getY(i)));
+                int j = i;
+                while (j > 0 && list.getScore(order[j - 1]) > list.getScore(i)) {
+                    order[j] = order[j - 1];
+                    j--;
+                }
+                order[j] = i;
+            }
+            nodeCount += count;
+            return order;
+        }
+
+        /**
+         * adds this task's counts to the brain's
+         * */
+        void count() {
+            nodes.add(nodeCount);
+            chanceNodes.add(chanceCount);
+            pruned.add(prunedCount);
+            cacheHits.add(hitCount);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package tetris;
+
+import static org.junit.Assert.*;
+import java.util.*;
+
+import org.junit.*;
+
+/*
+  Unit test for ExpectimaxBrain.
+ */
+public class ExpectimaxBrainTest {
+
+	// Looking no piece ahead is DefaultBrain's search
+	@Test
+	public void testDepthZero() {
+		GameEngine engine = new GameEngine(10, 24, 4);
+		engine.setPieceLimit(40);
+		engine.startGame(new Random(25));
+		SameMoves.assertSameGame(engine, new DefaultBrain(), new ExpectimaxBrain(0, 4), 0, null);
+	}
+
+	// The cache saves work -- pieces played in either order make the same board -- but not the answer
+	@Test
+	public void testCacheSameMove() {
+		ExpectimaxBrain cached = new ExpectimaxBrain(2, 3);
+		ExpectimaxBrain uncached = new ExpectimaxBrain(2, 3);
+		uncached.setEvaluationCache(null);
+		cached.setAdversary(0.5);
+		uncached.setAdversary(0.5);
+
+		GameEngine engine = new GameEngine(10, 24, 4);
+		engine.setPieceLimit(6);
+		engine.startGame(new Random(26));
+		SameMoves.assertSameGame(engine, uncached, cached, 1e-9, () -> {
+			assertEquals(0, uncached.getCacheHits());
+			assertTrue(cached.getCacheHits() > 0);
+			assertTrue(cached.getNodes() < uncached.getNodes());
+			assertTrue(uncached.getPruned() > 0);
+			assertTrue(uncached.getChanceNodes() > 0);
+		});
+	}
+
+	// A sure adversary makes the move's value that of the worst next piece
+	@Test
+	public void testAdversary() {
+		Board board = new Board(10, 24);
+		Piece piece = Piece.getPieces()[Piece.STICK];
+		ExpectimaxBrain uniform = new ExpectimaxBrain(1, 4);
+		ExpectimaxBrain adversarial = new ExpectimaxBrain(1, 4);
+		adversarial.setAdversary(1);
+		Brain.Move even = uniform.bestMove(board, piece, 20, null);
+		Brain.Move worst = adversarial.bestMove(board, piece, 20, null);
+		assertTrue(worst.score > even.score);
+	}
+
+	// Cached chance values (depth 2 caches them) do not outlive a change of the adversary or the limit
+	@Test
+	public void testSettingsClearCache() {
+		ExpectimaxBrain reused = new ExpectimaxBrain(2, 2);
+		Brain.Move expected = new Brain.Move();
+		Brain.Move actual = new Brain.Move();
+		GameEngine engine = new GameEngine(10, 24, 4);
+		engine.setPieceLimit(5);
+		engine.startGame(new Random(27));
+		while (engine.isGameOn()) {
+			Board board = engine.getBoard();
+			board.undo();
+			Piece piece = engine.getCurrentPiece();
+			reused.setAdversary(0);
+			assertNotNull(reused.bestMove(board, piece, 20, actual));
+			reused.setAdversary(1);
+			ExpectimaxBrain fresh = new ExpectimaxBrain(2, 2);
+			fresh.setAdversary(1);
+			SameMoves.assertSameMove(fresh.bestMove(board, piece, 20, expected),
+					reused.bestMove(board, piece, 20, actual), 0);
+
+			fresh = new ExpectimaxBrain(2, 2);
+			fresh.setAdversary(1);
+			assertNotNull(fresh.bestMove(board, piece, 16, expected));
+			assertNotNull(reused.bestMove(board, piece, 16, actual));
+			assertEquals(expected.score, actual.score, 0);
+			engine.playMove(expected.piece, expected.x, expected.y);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+// FeatureBrain.java
+
+package tetris;
+
+/**
+ A DefaultBrain that rates plays with a FeatureEvaluator, so it sees
+ the move as well as the board: how high the piece landed and how
+ many of its blocks the rows it cleared took away.
+ Since its rating depends on the move, it does not use an
+ EvaluationCache.
+*/
+public class FeatureBrain extends DefaultBrain {
+    private final FeatureEvaluator evaluator;
+
+    /**
+     A brain with the weights in the file named by the tetris.weights
+     system property, or the default weights if it is not set -- so
+     that tuned weights (see WeightTuner) can be tried with
+     java -Dtetris.weights=tuned.weights tetris.BatchSimulator -brain tetris.FeatureBrain
+    */
+    public FeatureBrain() {
+        this(loadWeights(System.getProperty("tetris.weights")));
+    }
+
+    public FeatureBrain(FeatureEvaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    private static FeatureEvaluator loadWeights(String fileName) {
+        if (fileName == null) return FeatureEvaluator.getDefault();
+        try {
+            return FeatureEvaluator.load(fileName);
+        }
+        catch (java.io.IOException e) {
+            throw new RuntimeException("Could not read weights " + fileName, e);
+        }
+    }
+
+    public FeatureEvaluator getEvaluator() {
+        return evaluator;
+    }
+
+
+    /**
+     Rates the play with the evaluator, the landing height being
+     that of the middle of the piece.
+    */
+    protected double rateMove(Board board, Piece piece, int x, int y, int erodedCells) {
+        return evaluator.rate(board, y + (piece.getHeight() - 1) / 2.0, erodedCells);
+    }
+
+
+    /**
+     Rates a board on its own, with no move to go by.
+    */
+    public double rateBoard(Board board) {
+        return evaluator.rate(board, 0, 0);
+    }
+}
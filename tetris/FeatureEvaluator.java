@@ -0,0 +1,234 @@
+// FeatureEvaluator.java
+package tetris;
+
+import java.io.*;
+import java.util.Properties;
+
+/**
+ Rates a board as a weighted sum of features -- larger numbers for
+ worse boards, as with DefaultBrain.rateBoard(). The features are
+ <pre>
+ holes                empty blocks with a filled block above them
+ covered_cells        filled blocks with an empty block below them
+ wells                sum over columns lower than both neighbours (or
+                      the walls) of 1 + 2 + ... + how much lower
+ bumpiness            sum of the height differences of neighbouring columns
+ row_transitions      filled/empty changes along each row up to the
+                      top block, the walls counting as filled
+ column_transitions   filled/empty changes up each column, the floor
+                      counting as filled
+ landing_height       height of the middle of the piece just played
+ eroded_cells         rows the piece cleared times its blocks in them
+ max_height           height of the tallest column
+ aggregate_height     sum of the column heights
+ </pre>
+ All of them come out of one pass up the row words of the board and
+ one along its column heights -- about the cost of one rateBoard().
+
+ <p>
+ The weights are a plain Properties file, one "name = weight" line
+ per feature; features left out weigh 0. default.weights, next to
+ this class, has the built-in DEFAULT_WEIGHTS -- Pierre Dellacherie's
+ features with the weights of the El-Tetris player.
+ An evaluator only reads its weights, so threads may share one.
+*/
+public class FeatureEvaluator {
+	public static final int HOLES = 0;
+	public static final int COVERED_CELLS = 1;
+	public static final int WELLS = 2;
+	public static final int BUMPINESS = 3;
+	public static final int ROW_TRANSITIONS = 4;
+	public static final int COLUMN_TRANSITIONS = 5;
+	public static final int LANDING_HEIGHT = 6;
+	public static final int ERODED_CELLS = 7;
+	public static final int MAX_HEIGHT = 8;
+	public static final int AGGREGATE_HEIGHT = 9;
+	public static final int FEATURE_COUNT = 10;
+
+	/**  The feature names, as used in weight files, by index.  */
+	public static final String[] NAMES = {"holes", "covered_cells", "wells", "bumpiness",
+		"row_transitions", "column_transitions", "landing_height", "eroded_cells",
+		"max_height", "aggregate_height"};
+
+	public static final double[] DEFAULT_WEIGHTS = {7.899265427351652, 0, 3.3855972247263626, 0,
+		3.2178882868487753, 9.348695305445199, 4.500158825082766, -3.4181268101392694, 0, 0};
+
+	private final double[] weights;
+
+	// features of the board being rated, one array per thread
+	private static final ThreadLocal<double[]> scratch = new ThreadLocal<double[]>();
+
+
+	/**
+	 Creates an evaluator with the given weights, by feature index.
+	*/
+	public FeatureEvaluator(double[] weights) {
+		if (weights.length != FEATURE_COUNT) {
+			throw new RuntimeException("Need " + FEATURE_COUNT + " weights, got " + weights.length);
+		}
+		this.weights = weights.clone();
+	}
+
+
+	/**
+	 Returns an evaluator with DEFAULT_WEIGHTS.
+	*/
+	public static FeatureEvaluator getDefault() {
+		return new FeatureEvaluator(DEFAULT_WEIGHTS);
+	}
+
+
+	/**
+	 Reads the weights from the properties file with the given name.
+	*/
+	public static FeatureEvaluator load(String fileName) throws IOException {
+		Reader in = new FileReader(fileName);
+		try {
+			return load(in);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+
+	/**
+	 Reads the weights in the properties format described above.
+	 Names that are not features are an error, to catch typos.
+	*/
+	public static FeatureEvaluator load(Reader in) throws IOException {
+		Properties properties = new Properties();
+		properties.load(in);
+		return fromProperties(properties);
+	}
+
+
+	/**
+	 Takes the weights from the given properties.
+	*/
+	public static FeatureEvaluator fromProperties(Properties properties) {
+		double[] weights = new double[FEATURE_COUNT];
+		for (String name : properties.stringPropertyNames()) {
+			int feature = indexOf(name);
+			if (feature < 0) throw new RuntimeException("No feature called " + name);
+			try {
+				weights[feature] = Double.parseDouble(properties.getProperty(name).trim());
+			}
+			catch (NumberFormatException e) {
+				throw new RuntimeException("Bad weight for " + name + ": " + properties.getProperty(name));
+			}
+		}
+		return new FeatureEvaluator(weights);
+	}
+
+
+	/**
+	 Returns the weights as properties, to store or tune.
+	*/
+	public Properties toProperties() {
+		Properties properties = new Properties();
+		for (int i=0; i<FEATURE_COUNT; ++i) {
+			properties.setProperty(NAMES[i], Double.toString(weights[i]));
+		}
+		return properties;
+	}
+
+
+	/**
+	 Returns the index of the feature with the given name, or -1.
+	*/
+	public static int indexOf(String name) {
+		for (int i=0; i<FEATURE_COUNT; ++i) {
+			if (NAMES[i].equals(name)) return i;
+		}
+		return -1;
+	}
+
+
+	/**
+	 Returns a copy of the weights, by feature index.
+	*/
+	public double[] getWeights() {
+		return weights.clone();
+	}
+
+
+	/**
+	 Rates the board: the weighted sum of its features.
+	 landingHeight and erodedCells describe the move just played,
+	 0 if there was none. Allocates nothing once warmed up.
+	*/
+	public double rate(Board board, double landingHeight, int erodedCells) {
+		double[] features = scratch.get();
+		if (features == null) {
+			features = new double[FEATURE_COUNT];
+			scratch.set(features);
+		}
+		computeFeatures(board, landingHeight, erodedCells, features);
+		double score = 0;
+		for (int i=0; i<FEATURE_COUNT; ++i) {
+			score += weights[i] * features[i];
+		}
+		return score;
+	}
+
+
+	/**
+	 Fills out with the features of the board, by index; landingHeight
+	 and erodedCells are passed through, as for rate().
+	*/
+	public static void computeFeatures(Board board, double landingHeight, int erodedCells, double[] out) {
+		final int width = board.getWidth();
+		final int maxHeight = board.getMaxHeight();
+		final long full = width == Board.MAX_WIDTH ? -1L : (1L << width) - 1;
+		final long pairs = full >>> 1;		// bit x: the blocks x and x+1
+		final long right = 1L << (width - 1);
+
+		// up the rows: blocks, transitions, and blocks over an empty block
+		int blocks = 0;
+		int rowTransitions = 0;
+		int columnTransitions = 0;
+		int covered = 0;
+		long below = full;		// the floor counts as filled
+		long emptyBelow = 0;	// columns with an empty block lower down
+		for (int y=0; y<maxHeight; ++y) {
+			long row = board.getRow(y);
+			blocks += Long.bitCount(row);
+			rowTransitions += Long.bitCount((row ^ (row >>> 1)) & pairs)
+					+ (int) (~row & 1) + ((row & right) == 0 ? 1 : 0);
+			columnTransitions += Long.bitCount(row ^ below);
+			covered += Long.bitCount(row & emptyBelow);
+			emptyBelow |= ~row & full;
+			below = row;
+		}
+		columnTransitions += Long.bitCount(below);	// the top blocks, against the empty rows above
+
+		// along the columns: heights, bumpiness, wells
+		final int wall = board.getHeight();
+		int heightSum = 0;
+		int bumpiness = 0;
+		int wells = 0;
+		int left = wall;
+		int height = board.getColumnHeight(0);
+		for (int x=0; x<width; ++x) {
+			int next = x + 1 < width ? board.getColumnHeight(x + 1) : wall;
+			heightSum += height;
+			if (x + 1 < width) bumpiness += Math.abs(next - height);
+			int depth = Math.min(left, next) - height;
+			if (depth > 0) wells += depth * (depth + 1) / 2;
+			left = height;
+			height = next;
+		}
+
+		out[HOLES] = heightSum - blocks;
+		out[COVERED_CELLS] = covered;
+		out[WELLS] = wells;
+		out[BUMPINESS] = bumpiness;
+		out[ROW_TRANSITIONS] = rowTransitions;
+		out[COLUMN_TRANSITIONS] = columnTransitions;
+		out[LANDING_HEIGHT] = landingHeight;
+		out[ERODED_CELLS] = erodedCells;
+		out[MAX_HEIGHT] = maxHeight;
+		out[AGGREGATE_HEIGHT] = heightSum;
+	}
+}
@@ -0,0 +1,144 @@
+package tetris;
+
+import static org.junit.Assert.*;
+import java.io.*;
+import java.util.*;
+
+import org.junit.*;
+
+/*
+  Unit test for FeatureEvaluator.
+ */
+public class FeatureEvaluatorTest {
+
+	// The bit-parallel features match counting them block by block
+	@Test
+	public void testFeatures() {
+		Random random = new Random(21);
+		double[] fast = new double[FeatureEvaluator.FEATURE_COUNT];
+		for (int n=0; n<200; ++n) {
+			Board board = scatter(new Board(10, 24), random, n % 40);
+			FeatureEvaluator.computeFeatures(board, 2.5, 3, fast);
+			assertArrayEquals(naiveFeatures(board, 2.5, 3), fast, 0);
+		}
+	}
+
+	// Weights load by name, and the features left out weigh 0
+	@Test
+	public void testLoad() throws IOException {
+		FeatureEvaluator evaluator = FeatureEvaluator.load(new StringReader(
+				"# a comment\nholes = 2\nlanding_height=0.5\n"));
+		double[] weights = evaluator.getWeights();
+		assertEquals(2, weights[FeatureEvaluator.HOLES], 0);
+		assertEquals(0.5, weights[FeatureEvaluator.LANDING_HEIGHT], 0);
+		assertEquals(0, weights[FeatureEvaluator.WELLS], 0);
+
+		Board board = new Board(4, 8);
+		Piece square = Piece.getPieces()[Piece.SQUARE];
+		board.place(square, 0, 1);
+		board.commit();
+		assertEquals(2 * 2 + 0.5 * 3, evaluator.rate(board, 3, 0), 0);
+
+		FeatureEvaluator back = FeatureEvaluator.fromProperties(evaluator.toProperties());
+		assertArrayEquals(weights, back.getWeights(), 0);
+
+		try {
+			FeatureEvaluator.load(new StringReader("hole = 1\n"));
+			fail("misspelt feature loaded");
+		}
+		catch (RuntimeException expected) {
+		}
+	}
+
+	// default.weights holds the built-in weights
+	@Test
+	public void testDefaultWeights() throws IOException {
+		File file = new File("tetris/default.weights");
+		Assume.assumeTrue(file.exists());
+		assertArrayEquals(FeatureEvaluator.DEFAULT_WEIGHTS,
+				FeatureEvaluator.load(file.getPath()).getWeights(), 0);
+	}
+
+
+	// Places pieces at random free spots, floating or not, leaving holes and overhangs.
+	private static Board scatter(Board board, Random random, int count) {
+		Piece[] pieces = Piece.getPieces();
+		for (int i=0; i<count; ++i) {
+			Piece piece = pieces[random.nextInt(pieces.length)];
+			int x = random.nextInt(board.getWidth() - piece.getWidth() + 1);
+			int y = random.nextInt(14);
+			if (board.canPlace(piece, x, y)) {
+				board.place(piece, x, y);
+				board.clearRows();
+				board.commit();
+			}
+		}
+		return board;
+	}
+
+	// The features straight from the definitions, looking at every block.
+	private static double[] naiveFeatures(Board board, double landingHeight, int eroded) {
+		int width = board.getWidth();
+		int height = board.getHeight();
+		int[] heights = new int[width];
+		int maxHeight = 0;
+		int aggregate = 0;
+		for (int x=0; x<width; ++x) {
+			for (int y=0; y<height; ++y) {
+				if (board.getGrid(x, y)) heights[x] = y + 1;
+			}
+			maxHeight = Math.max(maxHeight, heights[x]);
+			aggregate += heights[x];
+		}
+
+		int holes = 0;
+		int covered = 0;
+		int columnTransitions = 0;
+		for (int x=0; x<width; ++x) {
+			boolean below = true;
+			boolean emptyBelow = false;
+			for (int y=0; y<height; ++y) {
+				boolean filled = board.getGrid(x, y);
+				if (!filled && y < heights[x]) holes++;
+				if (filled && emptyBelow) covered++;
+				if (!filled) emptyBelow = true;
+				if (filled != below) columnTransitions++;
+				below = filled;
+			}
+		}
+
+		int rowTransitions = 0;
+		for (int y=0; y<maxHeight; ++y) {
+			boolean left = true;
+			for (int x=0; x<=width; ++x) {
+				boolean filled = x == width || board.getGrid(x, y);
+				if (filled != left) rowTransitions++;
+				left = filled;
+			}
+		}
+
+		int bumpiness = 0;
+		int wells = 0;
+		for (int x=0; x<width; ++x) {
+			if (x > 0) bumpiness += Math.abs(heights[x] - heights[x - 1]);
+			int left = x > 0 ? heights[x - 1] : height;
+			int right = x < width - 1 ? heights[x + 1] : height;
+			for (int depth=1; depth<=Math.min(left, right) - heights[x]; ++depth) {
+				wells += depth;
+			}
+		}
+
+		double[] features = new double[FeatureEvaluator.FEATURE_COUNT];
+		features[FeatureEvaluator.HOLES] = holes;
+		features[FeatureEvaluator.COVERED_CELLS] = covered;
+		features[FeatureEvaluator.WELLS] = wells;
+		features[FeatureEvaluator.BUMPINESS] = bumpiness;
+		features[FeatureEvaluator.ROW_TRANSITIONS] = rowTransitions;
+		features[FeatureEvaluator.COLUMN_TRANSITIONS] = columnTransitions;
+		features[FeatureEvaluator.LANDING_HEIGHT] = landingHeight;
+		features[FeatureEvaluator.ERODED_CELLS] = eroded;
+		features[FeatureEvaluator.MAX_HEIGHT] = maxHeight;
+		features[FeatureEvaluator.AGGREGATE_HEIGHT] = aggregate;
+		return features;
+	}
+}
@@ -0,0 +1,513 @@
+// GameEngine.java
+package tetris;
+
+import java.util.Random;
+
+/**
+ The rules of tetris, with no GUI attached.
+ A GameEngine owns the Board, the falling piece, the score and the
+ random generator for new pieces, and advances the game one verb at
+ a time with tick() -- the same verbs the JTetris keys and timer send.
+ JTetris is just a view over one of these; simulations can drive it
+ directly, millions of ticks a second, without AWT.
+
+ <p>
+ A game goes:
+ <pre>
+ GameEngine engine = new GameEngine(10, 20, 4);
+ engine.startGame(new Random(0));
+ while (engine.isGameOn()) {
+	 engine.tick(GameEngine.DOWN);	// or LEFT, RIGHT, ROTATE, DROP
+ }
+ </pre>
+ Nothing is allocated per tick. Subclasses may override pickNextPiece()
+ to choose pieces some other way than uniformly at random.
+*/
+public class GameEngine {
+	// the verbs for tick()
+	public static final int ROTATE = 0;
+	public static final int LEFT = 1;
+	public static final int RIGHT = 2;
+	public static final int DROP = 3;
+	public static final int DOWN = 4;
+
+	// what tick() reports
+	public static final int TICK_IDLE = 0;		// no game is on
+	public static final int TICK_MOVED = 1;		// the piece moved
+	public static final int TICK_BLOCKED = 2;	// the move was not possible, nothing changed
+	public static final int TICK_LANDED = 3;	// the piece landed and the next one is in play
+	public static final int TICK_GAME_OVER = 4;	// the piece landed and the game ended
+
+	private final int width;
+	private final int height;
+	private final int topSpace;
+
+	private Board board;
+	private Piece[] pieces;
+	private Random random;
+	private Piece[] preview = new Piece[0];	// the pieces after the current one, soonest first
+
+	// The current piece in play or null
+	private Piece currentPiece;
+	private int currentX;
+	private int currentY;
+	private boolean moved;	// did the player move the piece
+
+	// State of the game
+	private boolean gameOn;
+	private int count;			// how many pieces played so far
+	private int placed;			// how many of them have landed
+	private int score;
+	private int pieceLimit;		// game ends after this many pieces, 0 for no limit
+	private int lastCleared;	// rows cleared by the last landing
+	private int lastPlace;		// Board.place() result of the last move
+	private long rowsCleared;	// rows cleared this game
+
+
+	/**
+	 Creates an engine for a board of the given size in blocks. The
+	 top topSpace rows are where new pieces start: a piece that
+	 lands sticking up into them ends the game.
+	 Plays the standard pieces until setPieces() says otherwise.
+	*/
+	public GameEngine(int width, int height, int topSpace) {
+		this.width = width;
+		this.height = height;
+		this.topSpace = topSpace;
+		pieces = Piece.getPieces();
+		board = newBoard();
+	}
+
+
+	/**
+	 * an empty board for a game, without the O(height) sanity check
+	 * in clearRows() -- copies the brains make of it go without too
+	 * */
+	private Board newBoard() {
+		Board board = new Board(width, height + topSpace);
+		board.setDebug(false);
+		return board;
+	}
+
+
+	/**
+	 Sets the pieces new pieces are picked from, e.g. from a PieceCatalog.
+	*/
+	public void setPieces(Piece[] pieces) {
+		this.pieces = pieces;
+	}
+
+	/**
+	 Sets how many of the coming pieces getPreview() shows, 0 for none.
+	 The pieces come in the same order whatever the size; they are just
+	 picked that many pieces sooner. Takes effect at the next startGame().
+	*/
+	public void setPreviewSize(int size) {
+		preview = new Piece[size];
+	}
+
+	/**
+	 Ends the game after the given number of pieces, or never for 0.
+	*/
+	public void setPieceLimit(int limit) {
+		pieceLimit = limit;
+	}
+
+
+	/**
+	 Starts a new game on an empty board, using the given random
+	 generator for the piece sequence, and puts the first piece in play.
+	*/
+	public void startGame(Random random) {
+		this.random = random;
+		board = newBoard();
+		count = 0;
+		placed = 0;
+		score = 0;
+		rowsCleared = 0;
+		lastCleared = 0;
+		currentPiece = null;
+		gameOn = true;
+		for (int i=0; i<preview.length; ++i) {
+			preview[i] = pickNextPiece();
+		}
+		addNewPiece();
+	}
+
+
+	/**
+	 Stops the game.
+	*/
+	public void stopGame() {
+		gameOn = false;
+	}
+
+
+	/**
+	 Selects the next piece using the random generator given to
+	 startGame(). Subclasses may override this.
+	*/
+	public Piece pickNextPiece() {
+		return randomPiece();
+	}
+
+
+	/**
+	 Picks one of the pieces uniformly at random.
+	*/
+	public final Piece randomPiece() {
+		int pieceNum = (int) (pieces.length * random.nextDouble());
+		return pieces[pieceNum];
+	}
+
+
+	/**
+	 * takes the next piece off the front of the preview,
+	 * and picks a new one for the back
+	 * */
+	private Piece nextPiece() {
+		if (preview.length == 0) return pickNextPiece();
+		Piece piece = preview[0];
+		System.arraycopy(preview, 1, preview, 0, preview.length - 1);
+		preview[preview.length - 1] = pickNextPiece();
+		return piece;
+	}
+
+
+	/**
+	 Given a piece, tries to install that piece
+	 into the board and set it to be the current piece.
+	 If the placement is not possible, then the placement
+	 is undone, and the board is not changed. The board
+	 should be in the committed state when this is called.
+	 Returns the same error code as Board.place().
+	*/
+	private int setCurrent(Piece piece, int x, int y) {
+		int result = board.place(piece, x, y);
+
+		if (result <= Board.PLACE_ROW_FILLED) { // SUCESS
+			currentPiece = piece;
+			currentX = x;
+			currentY = y;
+		}
+		else {
+			board.undo();
+		}
+
+		lastPlace = result;
+		return(result);
+	}
+
+
+	/**
+	 Tries to add a new random piece at the top of the board.
+	 Ends the game if it's not possible. Returns whether the
+	 game is still on.
+	*/
+	private boolean addNewPiece() {
+		count++;
+		score++;
+
+		if (pieceLimit > 0 && count == pieceLimit+1) {
+			gameOn = false;
+			return false;
+		}
+
+		// commit things the way they are
+		board.commit();
+		currentPiece = null;
+
+		Piece piece = nextPiece();
+
+		// Center it up at the top
+		int px = (board.getWidth() - piece.getWidth())/2;
+		int py = board.getHeight() - piece.getHeight();
+
+		// add the new piece to be in play
+		int result = setCurrent(piece, px, py);
+
+		// This probably never happens, since
+		// the blocks at the top allow space
+		// for new pieces to at least be added.
+		if (result>Board.PLACE_ROW_FILLED) {
+			gameOn = false;
+		}
+		return gameOn;
+	}
+
+
+	/**
+	 Called to change the position of the current piece.
+	 LEFT RIGHT ROTATE DROP are the player moves, and DOWN moves
+	 the piece down one square, as the timer does.
+	 Returns one of the TICK_XXX codes.
+
+	 <p>
+	 How to detect when a piece has landed:
+	 if this move hits something on its DOWN verb,
+	 and the previous verb was also DOWN (i.e. the player was not
+	 still moving it), then the previous position must be the correct
+	 "landed" position, so we're done with the falling of this piece.
+	*/
+	public int tick(int verb) {
+		if (!gameOn) return TICK_IDLE;
+
+		if (currentPiece != null) {
+			board.undo();	// remove the piece from its old position
+		}
+
+		// As a starting point, the new position is the same as the old
+		Piece newPiece = currentPiece;
+		int newX = currentX;
+		int newY = currentY;
+
+		// Make changes based on the verb
+		switch (verb) {
+			case LEFT: newX--; break;
+
+			case RIGHT: newX++; break;
+
+			case ROTATE:
+				newPiece = newPiece.fastRotation();
+
+				// tricky: make the piece appear to rotate about its center
+				// can't just leave it at the same lower-left origin as the
+				// previous piece.
+				newX = newX + (currentPiece.getWidth() - newPiece.getWidth())/2;
+				newY = newY + (currentPiece.getHeight() - newPiece.getHeight())/2;
+				break;
+
+			case DOWN: newY--; break;
+
+			case DROP:
+				newY = board.dropHeight(newPiece, newX);
+
+				// trick: avoid the case where the drop would cause
+				// the piece to appear to move up
+				if (newY > currentY) {
+					newY = currentY;
+				}
+				break;
+
+			default:
+				throw new RuntimeException("Bad verb");
+		}
+
+		// try out the new position (rolls back if it doesn't work)
+		int result = setCurrent(newPiece, newX, newY);
+		boolean failed = (result >= Board.PLACE_OUT_BOUNDS);
+
+		// if it didn't work, put it back the way it was
+		if (failed) {
+			if (currentPiece != null) board.place(currentPiece, currentX, currentY);
+		}
+
+		boolean landed = failed && verb==DOWN && !moved;
+
+		// Note if the player made a successful non-DOWN move --
+		// used to detect if the piece has landed on the next tick()
+		moved = (!failed && verb!=DOWN);
+
+		if (landed) {
+			return land();
+		}
+		return failed ? TICK_BLOCKED : TICK_MOVED;
+	}
+
+
+	/**
+	 Plays the current piece straight to a placement in one step,
+	 instead of tick by tick: puts the given rotation of it at x,
+	 dropped from the top, then lands it. This is how a brain's
+	 Move is played headless. Returns TICK_LANDED, TICK_GAME_OVER,
+	 or TICK_BLOCKED (with nothing changed) if the placement is not possible.
+	*/
+	public int playMove(Piece piece, int x) {
+		if (!gameOn) return TICK_IDLE;
+		if (currentPiece != null) {
+			board.undo();
+		}
+		int result = x < 0 || x + piece.getWidth() > board.getWidth()
+				? Board.PLACE_OUT_BOUNDS : setCurrent(piece, x, board.dropHeight(piece, x));
+		if (result >= Board.PLACE_OUT_BOUNDS) {
+			if (currentPiece != null) board.place(currentPiece, currentX, currentY);
+			return TICK_BLOCKED;
+		}
+		moved = false;
+		return land();
+	}
+
+
+	/**
+	 Plays the current piece straight to a placement in one step, as
+	 above, but at the given y rather than dropped from the top --
+	 for plays that slide under an overhang on the way down.
+	 The piece must fit at x,y and rest there on something.
+	 Returns as playMove(piece, x).
+	*/
+	public int playMove(Piece piece, int x, int y) {
+		if (!gameOn) return TICK_IDLE;
+		if (currentPiece != null) {
+			board.undo();
+		}
+		int result = board.canPlace(piece, x, y) && !board.canPlace(piece, x, y - 1)
+				? setCurrent(piece, x, y) : Board.PLACE_OUT_BOUNDS;
+		if (result >= Board.PLACE_OUT_BOUNDS) {
+			if (currentPiece != null) board.place(currentPiece, currentX, currentY);
+			return TICK_BLOCKED;
+		}
+		moved = false;
+		return land();
+	}
+
+
+	/**
+	 Lets the brain play the rest of the game: each piece goes
+	 wherever brain.bestMove() says, at the x and y of its move.
+	 The brain is shown the preview. The game
+	 ends as usual, or when the brain finds no move; a move that
+	 cannot be played throws IllegalStateException.
+	 move is reused for every bestMove() call; it may be null.
+	 Returns the number of pieces placed, as getPlacedCount().
+	*/
+	public int playGame(Brain brain, Brain.Move move) {
+		if (move == null) move = new Brain.Move();
+		while (gameOn) {
+			board.undo();	// take the falling piece out, for the brain
+			board.setFeatureTracking(true);	// kept up from move to move, not counted by every search
+			if (brain.bestMove(board, currentPiece, preview, height, move) == null) {
+				gameOn = false;
+				break;
+			}
+			if (playMove(move.piece, move.x, move.y) == TICK_BLOCKED) {
+				// nothing changed, so asking again would loop forever
+				throw new IllegalStateException("Brain played " + move.x + "," + move.y
+						+ ", where the piece cannot rest");
+			}
+		}
+		return placed;
+	}
+
+
+	/**
+	 * the current piece has come to rest: clears rows, scores,
+	 * and either ends the game or brings on the next piece
+	 * */
+	private int land() {
+		placed++;
+		int cleared = board.clearRows();
+		lastCleared = cleared;
+		rowsCleared += cleared;
+		if (cleared > 0) {
+			// score goes up by 5, 10, 20, 40 for row clearing
+			switch (cleared) {
+				case 1: score += 5;	 break;
+				case 2: score += 10;  break;
+				case 3: score += 20;  break;
+				case 4: score += 40; break;
+				default: score += 50;  // could happen with non-standard pieces
+			}
+		}
+
+		// if the board is too tall, we've lost
+		if (board.getMaxHeight() > board.getHeight() - topSpace) {
+			gameOn = false;
+		}
+		// Otherwise add a new piece and keep playing
+		else {
+			addNewPiece();
+		}
+		return gameOn ? TICK_LANDED : TICK_GAME_OVER;
+	}
+
+
+	/**
+	 Returns the board. While a piece is falling it is placed in
+	 the board, uncommitted; Board.undo() takes it out.
+	*/
+	public Board getBoard() {
+		return board;
+	}
+
+	/**
+	 Returns the pieces new pieces are picked from.
+	*/
+	public Piece[] getPieces() {
+		return pieces;
+	}
+
+	/**
+	 Returns the coming pieces, soonest first, as many as
+	 setPreviewSize() asked for. The caller should not modify the array.
+	*/
+	public Piece[] getPreview() {
+		return preview;
+	}
+
+	/**
+	 Returns the piece in play, or null.
+	*/
+	public Piece getCurrentPiece() {
+		return currentPiece;
+	}
+
+	public int getCurrentX() {
+		return currentX;
+	}
+
+	public int getCurrentY() {
+		return currentY;
+	}
+
+	public boolean isGameOn() {
+		return gameOn;
+	}
+
+	/**
+	 Returns how many pieces have been played, counting the one in play.
+	*/
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 Returns how many pieces have landed -- getCount() less the one
+	 in play, if any, and less the one the piece limit stopped.
+	*/
+	public int getPlacedCount() {
+		return placed;
+	}
+
+	public int getScore() {
+		return score;
+	}
+
+	/**
+	 Returns the rows cleared by the most recent landing.
+	*/
+	public int getLastCleared() {
+		return lastCleared;
+	}
+
+	/**
+	 Returns the Board.place() result of the most recent move or spawn.
+	*/
+	public int getLastPlaceResult() {
+		return lastPlace;
+	}
+
+	/**
+	 Returns all the rows cleared this game.
+	*/
+	public long getRowsCleared() {
+		return rowsCleared;
+	}
+
+	/**
+	 Returns the height pieces must stay within -- the board
+	 height less the top space.
+	*/
+	public int getLimitHeight() {
+		return height;
+	}
+}
@@ -0,0 +1,112 @@
+package tetris;
+
+import static org.junit.Assert.*;
+import java.util.*;
+
+import org.junit.*;
+
+/*
+  Unit test for GameEngine -- plays games with no GUI.
+ */
+public class GameEngineTest {
+	private GameEngine engine;
+
+	@Before
+	public void setUp() throws Exception {
+		engine = new GameEngine(10, 20, 4);
+		engine.startGame(new Random(0));
+	}
+
+	// A new piece starts centered at the top
+	@Test
+	public void testStart() {
+		Piece piece = engine.getCurrentPiece();
+		assertNotNull(piece);
+		assertTrue(engine.isGameOn());
+		assertEquals(1, engine.getCount());
+		assertEquals((10 - piece.getWidth()) / 2, engine.getCurrentX());
+		assertEquals(24 - piece.getHeight(), engine.getCurrentY());
+	}
+
+	// The verbs move the piece, and a blocked move changes nothing
+	@Test
+	public void testVerbs() {
+		int x = engine.getCurrentX();
+		int y = engine.getCurrentY();
+		assertEquals(GameEngine.TICK_MOVED, engine.tick(GameEngine.LEFT));
+		assertEquals(x - 1, engine.getCurrentX());
+		assertEquals(GameEngine.TICK_MOVED, engine.tick(GameEngine.DOWN));
+		assertEquals(y - 1, engine.getCurrentY());
+		for (int i=0; i<10; ++i) engine.tick(GameEngine.LEFT);
+		assertEquals(0, engine.getCurrentX());
+		assertEquals(GameEngine.TICK_BLOCKED, engine.tick(GameEngine.LEFT));
+		assertEquals(0, engine.getCurrentX());
+	}
+
+	// DROP then DOWN twice lands the piece and brings on the next one
+	@Test
+	public void testLanding() {
+		assertEquals(GameEngine.TICK_MOVED, engine.tick(GameEngine.DROP));
+		assertEquals(0, engine.getCurrentY());
+		assertEquals(GameEngine.TICK_BLOCKED, engine.tick(GameEngine.DOWN));
+		assertEquals(GameEngine.TICK_LANDED, engine.tick(GameEngine.DOWN));
+		assertEquals(2, engine.getCount());
+		assertEquals(2, engine.getScore());
+		assertTrue(engine.getBoard().getMaxHeight() > 0);
+	}
+
+	// The brain plays a seeded game to the piece limit, the same way every time
+	@Test
+	public void testBrainGame() {
+		int first = playBrainGame(7);
+		assertEquals(first, playBrainGame(7));
+		assertFalse(engine.isGameOn());
+		assertEquals(51, engine.getCount());
+		assertEquals(50, engine.getPlacedCount());
+		assertTrue(engine.getRowsCleared() > 0);
+	}
+
+	private int playBrainGame(long seed) {
+		engine.setPieceLimit(50);
+		engine.startGame(new Random(seed));
+		engine.playGame(new DefaultBrain(), null);
+		return engine.getScore();
+	}
+
+	// The preview shows the coming pieces without changing their order
+	@Test
+	public void testPreview() {
+		List<Piece> plain = new ArrayList<Piece>();
+		for (int i=0; i<10; ++i) {
+			plain.add(engine.getCurrentPiece());
+			engine.playMove(engine.getCurrentPiece(), 0);
+		}
+
+		GameEngine ahead = new GameEngine(10, 20, 4);
+		ahead.setPreviewSize(3);
+		ahead.startGame(new Random(0));
+		for (int i=0; i<7; ++i) {
+			assertSame(plain.get(i), ahead.getCurrentPiece());
+			assertEquals(3, ahead.getPreview().length);
+			for (int j=0; j<3; ++j) {
+				assertSame(plain.get(i + 1 + j), ahead.getPreview()[j]);
+			}
+			ahead.playMove(ahead.getCurrentPiece(), 0);
+		}
+	}
+
+	// A brain whose move cannot be played stops the game loudly instead of being asked forever
+	@Test(expected = IllegalStateException.class)
+	public void testBadMove() {
+		GameEngine engine = new GameEngine(10, 24, 4);
+		engine.startGame(new Random(12));
+		engine.playGame(new Brain() {
+			public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+				move.piece = piece;
+				move.x = 0;
+				move.y = 10;	// in mid air
+				return move;
+			}
+		}, null);
+	}
+}
@@ -2,50 +2,297 @@ package tetris;
 
 import javax.swing.*;
 import java.awt.*;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class JBrainTetris extends JTetris{
-    private DefaultBrain brain;
+    private AnytimeBrain brain;
+    private Adversary adversaryEngine;
     private JCheckBox brainMode;
     private JComponent panel;
     private JSlider adversary;
     private Random r;
 
+    // the brain's plan for the piece in play, see tick()
+    private Board planBoard;
+    private int planCount;
+    private Piece planPiece;
+    private int planX;
+    private Piece expectedPiece;
+    private int expectedX;
+    private int plans;
+    private int speculatedPlans;
+
+    // the brain runs here, off the event thread; see requestPlan()
+    private final ExecutorService searcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "brain");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    // searches hand their plans over through these, never blocking the event thread:
+    // the plan asked for, the plans worked out ahead by piece id, and the adversary's
+    // ranking of the board the last plan leaves
+    private final AtomicReference<Plan> ready = new AtomicReference<Plan>();
+    private final ConcurrentMap<Integer, Plan> speculated = new ConcurrentHashMap<Integer, Plan>();
+    private final AtomicReference<Ranked> ranked = new AtomicReference<Ranked>();
+    private final AtomicInteger requests = new AtomicInteger();    // a newer request stops speculation
+    private final Brain.Move searchMove = new Brain.Move();    // only the searcher uses it
+    private int requestedCount = -1;    // the piece and board last sent to the searcher
+    private long requestedHash;
+    private int requestedPieceId;
+
     public JBrainTetris(int pixels){
         super(pixels);
         r = new Random();
         r.nextInt(100);
-        brain = new DefaultBrain();
+        brain = new AnytimeBrain(BRAIN_MIN_BUDGET);
+        adversaryEngine = new Adversary(brain);
     }
 
 
     /**
      * this method makes moves regarding to DefaultBRain instructions
-     * and uses super's tick for actual move
+     * and uses super's tick for actual move.
+     * The brain is asked once per piece, on its own thread; its answer
+     * is kept as a plan (the rotation and x to reach) and carried out
+     * one rotation and one shift per DOWN. Until the answer is in the
+     * piece just falls. The plan is made again only if the piece is
+     * not where the plan left it -- a new piece, a new game, or the
+     * player moved it.
      * */
     @Override
     public void tick(int verb){
-        if (verb == DOWN && brainMode.isSelected()){
-            board.undo();
-            Brain.Move move = brain.bestMove(board, currentPiece, HEIGHT, null);
-            if (move != null) {
-                TPoint[] b1 = currentPiece.getBody();
-                TPoint[] b2 = move.piece.getBody();
-                if (!currentPiece.equals(move.piece)) {
+        if (verb == DOWN && brainMode.isSelected() && engine.getCurrentPiece() != null){
+            if (!planValid()) {
+                takePlan();
+            }
+            if (planValid() && planPiece != null) {
+                if (engine.getCurrentPiece() != planPiece) {
                     super.tick(ROTATE);
                 }
-                if (currentX < move.x) {
+                if (engine.getCurrentX() < planX) {
                     super.tick(RIGHT);
-                } else if (currentX > move.x){
+                } else if (engine.getCurrentX() > planX){
                     super.tick(LEFT);
                 }
             }
             super.tick(verb);
+            // where the plan has put the piece, to check against next time
+            expectedPiece = engine.getCurrentPiece();
+            expectedX = engine.getCurrentX();
         } else {
             super.tick(verb);
         }
     }
 
+
+    /**
+     * forgets the plans and requests of the last game, which
+     * starts from the same count and empty board as this one
+     * */
+    @Override
+    public void startGame(){
+        requests.incrementAndGet();
+        ready.set(null);
+        speculated.clear();
+        ranked.set(null);
+        requestedCount = -1;
+        brain.setPieces(engine.getPieces());
+        super.startGame();
+    }
+
+
+    /**
+     * whether the plan is for the piece in play, and the piece is
+     * still where the plan left it
+     * */
+    private boolean planValid() {
+        return planBoard == engine.getBoard() && planCount == engine.getCount()
+                && expectedPiece == engine.getCurrentPiece() && expectedX == engine.getCurrentX();
+    }
+
+
+    /**
+     * A placement worked out by the searcher for one piece on one
+     * board, which the event thread checks by the piece count, the
+     * piece and the board hash before it takes it.
+     * */
+    static class Plan {
+        final int count;
+        final long hash;
+        final Piece start;    // the piece as it spawns
+        final Piece piece;    // where to put it, null if nowhere
+        final int x, y;
+
+        Plan(int count, long hash, Piece start, Brain.Move move) {
+            this.count = count;
+            this.hash = hash;
+            this.start = start;
+            this.piece = move != null ? move.piece : null;
+            this.x = move != null ? move.x : 0;
+            this.y = move != null ? move.y : 0;
+        }
+
+        boolean isFor(int count, long hash, Piece piece) {
+            return this.count == count && this.hash == hash && start.getPieceId() == piece.getPieceId();
+        }
+    }
+
+
+    /**
+     * The adversary's ranking of the board with the given hash.
+     * */
+    private static class Ranked {
+        final long hash;
+        final Adversary.Ranking ranking;
+
+        Ranked(long hash, Adversary.Ranking ranking) {
+            this.hash = hash;
+            this.ranking = ranking;
+        }
+    }
+
+
+    /**
+     * takes up the searcher's plan for the piece in play if it is in,
+     * whether searched for it or speculated; otherwise makes sure a
+     * search for it is on the way
+     * */
+    private void takePlan() {
+        Board board = engine.getBoard();
+        Piece current = engine.getCurrentPiece();
+        board.undo();
+        long hash = board.getHash();
+        int count = engine.getCount();
+
+        Plan plan = ready.get();
+        boolean ahead = false;
+        if (plan == null || !plan.isFor(count, hash, current)) {
+            plan = speculated.get(current.getPieceId());
+            ahead = true;
+        }
+        if (plan != null && plan.isFor(count, hash, current)) {
+            planBoard = board;
+            planCount = count;
+            planPiece = plan.piece;
+            planX = plan.x;
+            expectedPiece = current;
+            expectedX = engine.getCurrentX();
+            plans++;
+            if (ahead) {
+                speculatedPlans++;
+                // nothing was searched for this piece, so nothing is looking ahead yet either
+                requestPlan(new Board(board), current, engine.getPreview().clone(), engine.getPieces(),
+                        count, hash, plan);
+            }
+        }
+        else if (requestedCount != count || requestedHash != hash || requestedPieceId != current.getPieceId()) {
+            requestPlan(new Board(board), current, engine.getPreview().clone(), engine.getPieces(),
+                    count, hash, null);
+            requestedCount = count;
+            requestedHash = hash;
+            requestedPieceId = current.getPieceId();
+        }
+        // put the piece back where it was
+        board.place(current, engine.getCurrentX(), engine.getCurrentY());
+    }
+
+
+    /**
+     * searches, on the searcher thread, for the piece on the snapshot
+     * board, unless the plan is already known; then, with the plan
+     * handed over, works out ahead the plan for the next piece on the
+     * board the plan would leave. With a preview that is the first
+     * preview piece. Without one, as JBrainTetris plays, the next
+     * piece is picked against that board: the adversary ranks it here,
+     * for pickNextPiece() to use, and every piece gets a plan, worst
+     * first. A newer request stops the speculation where it is
+     * */
+    private void requestPlan(final Board snapshot, final Piece piece, final Piece[] preview, final Piece[] pieces,
+                             final int count, final long hash, final Plan known) {
+        final int request = requests.incrementAndGet();
+        searcher.execute(new Runnable() {
+            public void run() {
+                Plan plan = known;
+                if (plan == null) {
+                    plan = new Plan(count, hash, piece, brain.bestMove(snapshot, piece, preview, HEIGHT, searchMove));
+                    ready.set(plan);
+                }
+
+                if (plan.piece == null) return;
+                snapshot.place(plan.piece, plan.x, plan.y);
+                snapshot.clearRows();
+                snapshot.commit();
+                if (snapshot.getMaxHeight() > HEIGHT) return;    // that would end the game
+                long next = snapshot.getHash();
+
+                Piece[] coming;
+                Piece[] after = preview;
+                if (preview.length > 0) {
+                    coming = new Piece[] {preview[0]};
+                    after = Arrays.copyOfRange(preview, 1, preview.length);
+                }
+                else {
+                    Adversary.Ranking ranking = adversaryEngine.rank(snapshot, pieces, HEIGHT);
+                    ranked.set(new Ranked(next, ranking));
+                    coming = new Piece[ranking.size()];
+                    for (int rank=0; rank<coming.length; ++rank) coming[rank] = ranking.getPiece(rank);
+                }
+                speculated.clear();
+                for (Piece ahead : coming) {
+                    if (requests.get() != request) return;    // the searcher is wanted for a newer request
+                    speculated.put(ahead.getPieceId(), new Plan(count + 1, next, ahead,
+                            brain.bestMove(snapshot, ahead, after, HEIGHT, searchMove)));
+                }
+            }
+        });
+    }
+
+
+    /**
+     * how many plans have been carried out
+     * */
+    public int getPlanCount() {
+        return plans;
+    }
+
+    /**
+     * how many of them were worked out ahead, before their piece came on
+     * */
+    public int getSpeculatedPlanCount() {
+        return speculatedPlans;
+    }
+
+    /**
+     * waits for the searcher to finish what it has been asked so far
+     * */
+    void awaitSearches() throws InterruptedException, ExecutionException {
+        searcher.submit(new Runnable() {
+            public void run() {
+            }
+        }).get();
+    }
+
+    // the least time the brain gets for a piece, in nanoseconds
+    private static final long BRAIN_MIN_BUDGET = 1000000;
+
+    /**
+     * the brain may think for as long as one tick takes,
+     * so it gets stronger as the game slows down
+     * */
+    @Override
+    public void updateTimer(){
+        super.updateTimer();
+        if (brain != null){
+            brain.setBudget(Math.max(BRAIN_MIN_BUDGET, timer.getDelay() * 1000000L));
+        }
+    }
+
     private static final int SLIDER_MAX_VALUE = 100;
     private static final int SLIDER_HEIGHT = 15;
     private static final int SLIDER_WIDTH = 100;
@@ -84,26 +331,21 @@ public class JBrainTetris extends JTetris{
 
 
     /**
-     * finds the worst piece for current scenario
+     * finds the worst piece for current scenario, by the searcher's
+     * ranking if it has ranked this board already
      * */
     private Piece getNextPiece() {
-        Brain.Move move = null;
-        for (int i=0; i<pieces.length; ++i){
-            Piece curPiece = pieces[i];
-            Brain.Move curMove = brain.bestMove(board, curPiece, HEIGHT, null);
-            if (move == null || (curMove != null && move.score < curMove.score)){
-                move = curMove;
-            }
-            curPiece = curPiece.fastRotation();
-            while (!curPiece.equals(pieces[i])){
-                curMove = brain.bestMove(board, curPiece, HEIGHT, null);
-                if (move == null || (curMove != null && move.score < curMove.score)){
-                    move = curMove;
-                }
-                curPiece = curPiece.fastRotation();
+        Board board = engine.getBoard();
+        Ranked known = ranked.get();
+        Adversary.Ranking ranking = known != null && known.hash == board.getHash() ? known.ranking
+                : adversaryEngine.rank(board, engine.getPieces(), HEIGHT);
+        // the worst piece the player can still place somewhere
+        for (int rank=0; rank<ranking.size(); ++rank){
+            if (ranking.getScore(rank) != Double.POSITIVE_INFINITY){
+                return ranking.getPiece(rank);
             }
         }
-        return (move != null ?move.piece:super.pickNextPiece());
+        return super.pickNextPiece();
     }
 
     public static void main(String[] atgs) {
@@ -112,6 +354,7 @@ public class JBrainTetris extends JTetris{
         } catch (Exception ignored) { }
 
         JBrainTetris tetris = new JBrainTetris(16);
+        if (!loadPieces(tetris, atgs)) return;
         JFrame frame = JTetris.createFrame(tetris);
         frame.setVisible(true);
     }
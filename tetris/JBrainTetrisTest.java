@@ -0,0 +1,115 @@
+package tetris;
+
+import static org.junit.Assert.*;
+import java.awt.Component;
+import javax.swing.*;
+
+import org.junit.*;
+
+/*
+  Unit test for JBrainTetris's plans -- run headless, ticked from the
+  test thread instead of the timer.
+ */
+public class JBrainTetrisTest {
+	private Piece[] pieces;
+
+	@BeforeClass
+	public static void headless() {
+		System.setProperty("java.awt.headless", "true");
+	}
+
+	@Before
+	public void setUp() {
+		pieces = Piece.getPieces();
+	}
+
+	// A JBrainTetris whose pieces are all the given one, with the brain on
+	private static class Fixed extends JBrainTetris {
+		Piece next;
+
+		Fixed(Piece next) {
+			super(16);
+			this.next = next;
+			JComponent panel = createControlPanel();
+			for (Component component : panel.getComponents()) {
+				if (component instanceof JCheckBox && ((JCheckBox) component).getText().equals("Brain active")) {
+					((JCheckBox) component).setSelected(true);
+				}
+			}
+			speed.setValue(speed.getMaximum());	// no delay, so the brain gets its least budget
+		}
+
+		public Piece pickNextPiece() {
+			return next;
+		}
+
+		// starts a game without the timer, which would tick on the event thread
+		void start() {
+			startGame();
+			timer.stop();
+		}
+	}
+
+	// Ticks DOWN until the given number of pieces have come on, letting the searcher finish after each tick
+	private static void play(Fixed tetris, int count) throws Exception {
+		while (tetris.engine.isGameOn() && tetris.engine.getCount() < count) {
+			tetris.tick(JTetris.DOWN);
+			tetris.awaitSearches();
+		}
+		assertTrue(tetris.engine.isGameOn());
+	}
+
+	// With no preview, as the game is played, a plan is taken for every piece, and
+	// those after the first were worked out ahead for whichever piece might come
+	@Test
+	public void testPlanEveryPiece() throws Exception {
+		Fixed tetris = new Fixed(pieces[Piece.SQUARE]);
+		tetris.start();
+		play(tetris, 21);
+		assertEquals(20, tetris.getPlanCount());
+		assertEquals(19, tetris.getSpeculatedPlanCount());
+		tetris.stopGame();
+	}
+
+	// With a preview the plans after the first are worked out ahead
+	@Test
+	public void testSpeculation() throws Exception {
+		Fixed tetris = new Fixed(pieces[Piece.SQUARE]);
+		tetris.engine.setPreviewSize(1);
+		tetris.start();
+		play(tetris, 21);
+		assertEquals(20, tetris.getPlanCount());
+		assertEquals(19, tetris.getSpeculatedPlanCount());
+		tetris.stopGame();
+	}
+
+	// A new game starts at the same count on the same empty board, but with its own piece
+	@Test
+	public void testNewGame() throws Exception {
+		Fixed tetris = new Fixed(pieces[Piece.STICK]);
+		tetris.engine.setPreviewSize(1);
+		tetris.start();
+		play(tetris, 6);
+		tetris.stopGame();
+		assertEquals(5, tetris.getPlanCount());
+
+		tetris.next = pieces[Piece.SQUARE];
+		tetris.start();
+		play(tetris, 6);
+		tetris.stopGame();
+		assertEquals(10, tetris.getPlanCount());
+	}
+
+	// A plan is only for its count, board and piece
+	@Test
+	public void testStalePlan() {
+		Brain.Move move = new Brain.Move();
+		move.piece = pieces[Piece.L1];
+		JBrainTetris.Plan plan = new JBrainTetris.Plan(3, 42, pieces[Piece.L1], move);
+		assertTrue(plan.isFor(3, 42, pieces[Piece.L1]));
+		assertTrue(plan.isFor(3, 42, pieces[Piece.L1].fastRotation()));
+		assertFalse(plan.isFor(4, 42, pieces[Piece.L1]));
+		assertFalse(plan.isFor(3, 43, pieces[Piece.L1]));
+		assertFalse(plan.isFor(3, 42, pieces[Piece.L2]));
+	}
+}
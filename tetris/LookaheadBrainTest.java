@@ -0,0 +1,47 @@
+package tetris;
+
+import static org.junit.Assert.*;
+import java.util.*;
+
+import org.junit.*;
+
+/*
+  Unit test for LookaheadBrain -- beam search over the preview.
+ */
+public class LookaheadBrainTest {
+
+	// With nothing to look ahead at, it plays just like DefaultBrain
+	@Test
+	public void testNoPreviewIsDefault() {
+		GameEngine engine = new GameEngine(10, 20, 4);
+		engine.setPieceLimit(60);
+		engine.startGame(new Random(3));
+		SameMoves.assertSameGame(engine, new DefaultBrain(), new LookaheadBrain(), 0, null);
+	}
+
+	// The search leaves the board as it found it, and plays whole games
+	@Test
+	public void testPreviewGame() {
+		GameEngine engine = new GameEngine(10, 20, 4);
+		engine.setPreviewSize(2);
+		engine.setPieceLimit(100);
+		engine.startGame(new Random(1));
+		engine.getBoard().setDebug(true);	// GameEngine turns the checks off
+		LookaheadBrain brain = new LookaheadBrain(2, 10);
+		Brain.Move move = new Brain.Move();
+		while (engine.isGameOn()) {
+			Board board = engine.getBoard();
+			board.undo();
+			String before = board.toString();
+			long hash = board.getHash();
+			assertNotNull(brain.bestMove(board, engine.getCurrentPiece(), engine.getPreview(), 20, move));
+			assertEquals(before, board.toString());
+			assertEquals(hash, board.getHash());
+			assertEquals(0, board.getMarkDepth());
+			board.sanityCheck();
+			engine.playMove(move.piece, move.x);
+		}
+		assertEquals(101, engine.getCount());
+		assertTrue(engine.getRowsCleared() > 30);
+	}
+}
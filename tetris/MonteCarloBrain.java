@@ -0,0 +1,298 @@
+// MonteCarloBrain.java
+
+package tetris;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+
+/**
+ A brain that looks ahead by playing the game out. DefaultBrain
+ rates the plays of the piece, and the best few (the width) each get
+ many playouts: the play is made on a copy of the board, then the
+ preview pieces and random pieces after them, up to the horizon, are
+ played by the policy brain -- DefaultBrain's greedy search, unless
+ another is given. A playout costs what the policy's rateBoard() says
+ of the board it ends on, or LOST if the pieces topped out on the way.
+ The play with the lowest mean cost is the answer -- so a play that
+ rates well now but tends to leave a board the next pieces cannot
+ fix loses out.
+
+ <p>
+ Playouts are spread over the common fork-join pool, each task on
+ its own copy of the board, rolling back to a mark between playouts.
+ Playout j uses the same pieces for every play: they come from its own
+ SplittableRandom, seeded from the brain's. The plays are then compared
+ on the same games, and the answer does not depend on how the tasks
+ were scheduled. Playouts go in rounds of ROUND per play, until there
+ have been setPlayouts() of them or, with setBudget(), until the time
+ is up. The board must undo by journal, as Board(width, height)
+ boards do, and the policy must be safe to call from several threads.
+ The brain itself is not thread safe.
+*/
+public class MonteCarloBrain implements Brain {
+    /**  The cost of a playout that topped out.  */
+    public static final double LOST = 1e6;
+
+    /**  Playouts per play in each round.  */
+    public static final int ROUND = 8;
+
+    private final DefaultBrain policy;
+    private Piece[] pieces = Piece.getPieces();
+    private int playouts;
+    private int horizon;
+    private int width = 8;
+    private long budget;
+    private SplittableRandom random = new SplittableRandom(0);
+
+    // scratch, kept from one bestMove() to the next
+    private final MoveList plays = new MoveList();
+    private int[] order = new int[0];
+    private double[] totals = new double[0];
+    private double[] costs = new double[0];
+    private long[] seeds = new long[ROUND];
+    private int lastPlayouts;
+
+    /**
+     Creates a brain with DefaultBrain as its policy, 64 playouts
+     a play of 8 pieces each.
+    */
+    public MonteCarloBrain() {
+        this(new DefaultBrain(), 64, 8);
+    }
+
+    public MonteCarloBrain(DefaultBrain policy, int playouts, int horizon) {
+        this.policy = policy;
+        this.playouts = playouts;
+        this.horizon = horizon;
+    }
+
+
+    /**
+     Sets the pieces random pieces are drawn from -- those of the game.
+    */
+    public void setPieces(Piece[] pieces) {
+        this.pieces = pieces;
+    }
+
+    /**
+     Sets the playouts per play. With a budget too, they are the
+     most there will be, or unlimited for 0.
+    */
+    public void setPlayouts(int playouts) {
+        this.playouts = playouts;
+    }
+
+    /**
+     Sets how many pieces a playout plays after the play itself.
+    */
+    public void setHorizon(int horizon) {
+        this.horizon = horizon;
+    }
+
+    /**
+     Sets how many of the plays, best first by the policy's rating,
+     get playouts.
+    */
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    /**
+     Sets the time bestMove() may take, in nanoseconds, or 0 to
+     play just the set number of playouts. At least one round is
+     always played.
+    */
+    public void setBudget(long budget) {
+        this.budget = budget;
+    }
+
+    public void setSeed(long seed) {
+        random = new SplittableRandom(seed);
+    }
+
+    /**
+     Returns how many playouts, all plays together, the last
+     bestMove() played.
+    */
+    public int getPlayouts() {
+        return lastPlayouts;
+    }
+
+
+    /**
+     With no preview every piece of the playouts is random.
+    */
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        return bestMove(board, piece, null, limitHeight, move);
+    }
+
+
+    /**
+     Plays out the best few plays of the piece and returns the one
+     that did best on average. See the Brain interface for details.
+    */
+    public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight, Brain.Move move) {
+        board.commit();
+        boolean tracked = board.isFeatureTracking();
+        board.setFeatureTracking(true);
+        try {
+            return playOut(board, piece, preview, limitHeight, move);
+        }
+        finally {
+            board.setFeatureTracking(tracked);    // the caller's setting
+        }
+    }
+
+
+    /**
+     * bestMove() on a committed board that tracks its features
+     * */
+    private Brain.Move playOut(Board board, Piece piece, Piece[] preview, int limitHeight, Brain.Move move) {
+        final long deadline = System.nanoTime() + budget;
+        if (move==null) move = new Brain.Move();
+        lastPlayouts = 0;
+
+        // the candidates: the best plays by the policy's own rating
+        policy.generateMoves(board, piece, limitHeight, plays);
+        int count = plays.size();
+        if (order.length < count) order = new int[count];
+        for (int i=0; i<count; i++) {
+            plays.setScore(i, policy.ratePlay(board, plays.getPiece(i), plays.getX(i), plays.getY(i)));
+            order[i] = i;
+        }
+        count = sortBest(count);
+        if (count == 0) return(null);    // could not find a play at all!
+
+        if (totals.length < count) {
+            totals = new double[count];
+            costs = new double[count * ROUND];
+        }
+        Arrays.fill(totals, 0, count, 0);
+
+        int done = 0;
+        do {
+            for (int j=0; j<ROUND; j++) seeds[j] = random.nextLong();
+            ForkJoinPool.commonPool().invoke(new Playouts(board, preview, limitHeight, 0, count * ROUND));
+            for (int i=0; i<count * ROUND; i++) totals[i / ROUND] += costs[i];
+            done += ROUND;
+        } while (budget > 0 ? System.nanoTime() - deadline < 0 && (playouts == 0 || done < playouts)
+                : done < playouts);
+        lastPlayouts = done * count;
+
+        // ties go to the play the policy rated better
+        int best = 0;
+        for (int c=1; c<count; c++) {
+            if (totals[c] < totals[best]) best = c;
+        }
+        int play = order[best];
+        move.x = plays.getX(play);
+        move.y = plays.getY(play);
+        move.piece = plays.getPiece(play);
+        move.score = totals[best] / done;
+        return(move);
+    }
+
+
+    /**
+     * sorts the indexes of the playable plays by their rating, best
+     * first and stable, and returns how many of them to play out
+     * */
+    private int sortBest(int count) {
+        int playable = 0;
+        for (int i=0; i<count; i++) {
+            if (plays.getScore(i) < 1e20) order[playable++] = order[i];
+        }
+        // insertion sort: a few dozen plays, and it keeps ties in order
+        for (int i=1; i<playable; i++) {
+            int index = order[i];
+            double score = plays.getScore(index);
+            int j = i;
+            while (j > 0 && plays.getScore(order[j - 1]) > score) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = index;
+        }
+        return Math.min(playable, width);
+    }
+
+
+    /**
+     * plays one playout of candidate c on the board, which is left
+     * as it was, and returns its cost
+     * */
+    private double playout(Board board, Piece[] preview, int limitHeight, int c, long seed, Brain.Move move) {
+        int root = board.mark();
+        int play = order[c];
+        double cost = LOST;
+        if (place(board, plays.getPiece(play), plays.getX(play), plays.getY(play), limitHeight)) {
+            SplittableRandom pieceRandom = new SplittableRandom(seed);
+            int known = preview == null ? 0 : preview.length;
+            int k = 0;
+            for (; k<horizon; k++) {
+                Piece next = k < known ? preview[k] : pieces[pieceRandom.nextInt(pieces.length)];
+                if (policy.bestMove(board, next, limitHeight, move) == null
+                        || !place(board, move.piece, move.x, move.y, limitHeight)) break;
+            }
+            if (k == horizon) cost = policy.rateBoard(board);
+        }
+        board.rollbackTo(root);
+        return cost;
+    }
+
+
+    /**
+     * places the piece, clears rows and commits;
+     * returns false if the board then reaches above limitHeight
+     * */
+    private static boolean place(Board board, Piece piece, int x, int y, int limitHeight) {
+        int result = board.place(piece, x, y);
+        if (result > Board.PLACE_ROW_FILLED) {
+            board.undo();
+            return false;
+        }
+        board.clearRows();
+        board.commit();
+        return board.getMaxHeight() <= limitHeight;
+    }
+
+
+    // playouts below this many are played by one task -- each task copies the board
+    private static final int PLAYOUTS_PER_TASK = 4;
+
+    /**
+     * plays the playouts [from, to) of the round, numbered
+     * candidate * ROUND + playout, on its own copy of the board
+     * when there are few enough of them, else by splitting them in half
+     * */
+    private class Playouts extends RecursiveAction {
+        private final Board board;
+        private final Piece[] preview;
+        private final int limitHeight;
+        private final int from, to;
+
+        Playouts(Board board, Piece[] preview, int limitHeight, int from, int to) {
+            this.board = board;
+            this.preview = preview;
+            this.limitHeight = limitHeight;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from > PLAYOUTS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Playouts(board, preview, limitHeight, from, middle),
+                        new Playouts(board, preview, limitHeight, middle, to));
+                return;
+            }
+
+            Board copy = new Board(board);
+            Brain.Move move = new Brain.Move();
+            for (int i=from; i<to; i++) {
+                costs[i] = playout(copy, preview, limitHeight, i / ROUND, seeds[i % ROUND], move);
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package tetris;
+
+import static org.junit.Assert.*;
+import java.util.*;
+
+import org.junit.*;
+
+/*
+  Unit test for MonteCarloBrain.
+ */
+public class MonteCarloBrainTest {
+
+	private static MonteCarloBrain brain(int playouts) {
+		MonteCarloBrain brain = new MonteCarloBrain(new DefaultBrain(), playouts, 4);
+		brain.setSeed(24);
+		return brain;
+	}
+
+	// However the playouts are scheduled, the same seed gives the same moves
+	@Test
+	public void testRepeatable() {
+		MonteCarloBrain first = brain(16);
+		GameEngine engine = new GameEngine(10, 24, 4);
+		engine.setPreviewSize(1);
+		engine.setPieceLimit(30);
+		engine.startGame(new Random(24));
+		SameMoves.assertSameGame(engine, first, brain(16), 0,
+				() -> assertEquals(16 * 8, first.getPlayouts()));
+	}
+
+	// With a budget the playouts go on until the time is up
+	@Test
+	public void testBudget() {
+		MonteCarloBrain brain = brain(0);
+		brain.setBudget(20000000);	// 20 ms
+		Board board = new Board(10, 24);
+		long start = System.nanoTime();
+		assertNotNull(brain.bestMove(board, Piece.getPieces()[Piece.L1], 20, null));
+		long took = System.nanoTime() - start;
+		assertTrue(took >= 20000000);
+		assertTrue(brain.getPlayouts() > MonteCarloBrain.ROUND);
+		assertEquals(0, brain.getPlayouts() % MonteCarloBrain.ROUND);
+	}
+}
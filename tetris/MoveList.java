@@ -0,0 +1,80 @@
+// MoveList.java
+package tetris;
+
+/**
+ A growable list of plays -- a rotation, the x,y it lands at and
+ a score for it -- kept as parallel arrays so that filling it again
+ and again for every piece allocates nothing once it is big enough.
+ DefaultBrain.generateMoves() fills one for brains to search.
+*/
+public class MoveList {
+	private Piece[] pieces;
+	private int[] xs;
+	private int[] ys;
+	private double[] scores;
+	private int size;
+
+	public MoveList() {
+		pieces = new Piece[64];
+		xs = new int[64];
+		ys = new int[64];
+		scores = new double[64];
+	}
+
+
+	/**
+	 Empties the list, keeping its arrays.
+	*/
+	public void clear() {
+		size = 0;
+	}
+
+
+	/**
+	 Adds a play to the end of the list.
+	*/
+	public void add(Piece piece, int x, int y) {
+		if (size == pieces.length) {
+			pieces = java.util.Arrays.copyOf(pieces, size * 2);
+			xs = java.util.Arrays.copyOf(xs, size * 2);
+			ys = java.util.Arrays.copyOf(ys, size * 2);
+			scores = java.util.Arrays.copyOf(scores, size * 2);
+		}
+		pieces[size] = piece;
+		xs[size] = x;
+		ys[size] = y;
+		scores[size] = 0;
+		size++;
+	}
+
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 Returns the rotation of the i-th play.
+	*/
+	public Piece getPiece(int i) {
+		return pieces[i];
+	}
+
+	public int getX(int i) {
+		return xs[i];
+	}
+
+	public int getY(int i) {
+		return ys[i];
+	}
+
+	/**
+	 Returns the score a search gave the i-th play, lower is better.
+	*/
+	public double getScore(int i) {
+		return scores[i];
+	}
+
+	public void setScore(int i, double score) {
+		scores[i] = score;
+	}
+}
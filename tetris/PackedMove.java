@@ -0,0 +1,71 @@
+// PackedMove.java
+package tetris;
+
+/**
+ A brain's move packed into a single long, so that searches can hand
+ moves back without allocating a Brain.Move -- see Brain.bestMovePacked().
+ <pre>
+ bits  0-7   x
+ bits  8-19  y
+ bits 20-31  rotation id (Piece.getId())
+ bits 32-63  score, as the bits of a float
+ </pre>
+ NONE stands for no move at all. The score keeps float precision
+ only, about 7 digits -- Brain.Move has the exact double.
+*/
+public final class PackedMove {
+	/**  The packed value for "no move possible".  */
+	public static final long NONE = -1L;
+
+	private PackedMove() {
+	}
+
+	/**
+	 Packs a move. x must be 0..255, y and the rotation id 0..4095 --
+	 a move off a taller board, or a wider one, cannot be packed and
+	 throws rather than spill into the next field.
+	*/
+	public static long pack(int x, int y, int rotationId, double score) {
+		if ((x & ~0xFF) != 0 || (y & ~0xFFF) != 0 || (rotationId & ~0xFFF) != 0) {
+			throw new RuntimeException("Cannot pack x " + x + ", y " + y + ", rotation " + rotationId);
+		}
+		return ((long) Float.floatToRawIntBits((float) score) << 32)
+				| ((long) rotationId << 20) | ((long) y << 8) | x;
+	}
+
+	public static int getX(long move) {
+		return (int) move & 0xFF;
+	}
+
+	public static int getY(long move) {
+		return (int) (move >>> 8) & 0xFFF;
+	}
+
+	public static int getRotationId(long move) {
+		return (int) (move >>> 20) & 0xFFF;
+	}
+
+	public static float getScore(long move) {
+		return Float.intBitsToFloat((int) (move >>> 32));
+	}
+
+	/**
+	 Returns the rotation the move plays, looked up in the catalog
+	 of the given piece (any piece of the same catalog will do).
+	*/
+	public static Piece getPiece(long move, Piece piece) {
+		return piece.getCatalogRotation(getRotationId(move));
+	}
+
+	/**
+	 Unpacks the move into a Brain.Move, which is returned;
+	 piece is as for getPiece().
+	*/
+	public static Brain.Move unpack(long move, Piece piece, Brain.Move out) {
+		out.x = getX(move);
+		out.y = getY(move);
+		out.piece = getPiece(move, piece);
+		out.score = getScore(move);
+		return out;
+	}
+}
@@ -0,0 +1,37 @@
+package tetris;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+/*
+  Unit test for PackedMove -- every field comes back as packed, or the move is refused.
+ */
+public class PackedMoveTest {
+
+	// The largest values of each field come back unchanged
+	@Test
+	public void testRoundTrip() {
+		long move = PackedMove.pack(255, 4095, 4095, -1.5);
+		assertEquals(255, PackedMove.getX(move));
+		assertEquals(4095, PackedMove.getY(move));
+		assertEquals(4095, PackedMove.getRotationId(move));
+		assertEquals(-1.5f, PackedMove.getScore(move), 0);
+	}
+
+	// A y from a tall board would spill into the rotation id
+	@Test(expected = RuntimeException.class)
+	public void testTallBoard() {
+		PackedMove.pack(0, 4096, 0, 0);
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testNegativeX() {
+		PackedMove.pack(-1, 0, 0, 0);
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testNegativeRotation() {
+		PackedMove.pack(0, 0, -1, 0);
+	}
+}
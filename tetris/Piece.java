@@ -18,17 +18,30 @@ import java.util.*;
  int width = stick.getWidth();		// get its width
  Piece stick2 = stick.fastRotation();	// get the next rotation, fast way
  </pre>
+
+ Besides the TPoint body, every piece keeps its geometry packed into
+ primitives: getCoords() is a flat x,y array and getRowMasks() has one
+ bitmask per row of the piece, which is what Board places and
+ collision-tests with.
+
+ Every rotation in getPieces() -- or in any PieceCatalog -- also has a
+ small dense id, 0 .. getRotationCount()-1 within its catalog, along with
+ the index of its piece and of the rotation within that piece.
+ Catalog pieces compare by id, and the ids can index lookup tables
+ (see getRotation()).
 */
 public class Piece {
 	// Starter code specs out a few basic things, leaving
 	// the algorithms to be done.
 	private TPoint[] body;
+	private int[] coords;		// x0, y0, x1, y1, ...
+	private long[] rowMasks;	// bit x of rowMasks[y] set for each (x, y) in the body
 	private int[] skirt;
 	private int width;
 	private int height;
 	private Piece next; // "next" rotation
-
-	static private Piece[] pieces;	// singleton static array of first rotations
+	private int id, pieceId, rotationIndex;	// -1 until set up by a PieceCatalog
+	private Piece[] family;		// all the rotations of that catalog, by id
 
 	/**
 	 Defines a new piece given a TPoint[] array of its body.
@@ -36,6 +49,7 @@ public class Piece {
 	*/
 	public Piece(TPoint[] points) {
 		next = null;
+		id = pieceId = rotationIndex = -1;
 		int size = points.length;
 		body = new TPoint[size];
 		width = height = 0;
@@ -47,6 +61,23 @@ public class Piece {
 		width++;
 		height++;
 		findSkirt();
+		packBody();
+	}
+
+
+	/**
+	 * This method packs the body into the flat coordinate
+	 * array and the per-row bitmasks
+	 * */
+	private void packBody() {
+		int size = body.length;
+		coords = new int[2 * size];
+		rowMasks = new long[height];
+		for (int i=0; i<size; ++i){
+			coords[2 * i] = body[i].x;
+			coords[2 * i + 1] = body[i].y;
+			rowMasks[body[i].y] |= 1L << body[i].x;
+		}
 	}
 
 
@@ -98,6 +129,25 @@ public class Piece {
 		return body;
 	}
 
+	/**
+	 Returns a pointer to the piece's body as a flat array
+	 of x,y pairs: x0, y0, x1, y1, ... in body order.
+	 The caller should not modify this array.
+	*/
+	public int[] getCoords() {
+		return coords;
+	}
+
+	/**
+	 Returns a pointer to the piece's row masks: for each y
+	 up the piece, a bitmask with bit x set when (x, y) is in the body.
+	 Shifting a mask left by x positions it on a board row.
+	 The caller should not modify this array.
+	*/
+	public long[] getRowMasks() {
+		return rowMasks;
+	}
+
 	/**
 	 Returns a pointer to the piece's skirt. For each x value
 	 across the piece, the skirt gives the lowest y value in the body.
@@ -127,8 +177,8 @@ public class Piece {
 		TPoint[] newBody = new TPoint[size];
 
 		for (int i=0; i<size; ++i){
-			int curX = body[i].x;
-			int curY = body[i].y;
+			int curX = coords[2 * i];
+			int curY = coords[2 * i + 1];
 			newBody[i] = new TPoint(newW - curY - 1, curX);
 		}
 		answer = new Piece(newBody);
@@ -144,6 +194,40 @@ public class Piece {
 	public Piece fastRotation() {
 		return next;
 	}
+
+
+	/**
+	 Returns the id of this rotation: dense from 0 across every
+	 rotation of every piece in its catalog, or -1 for a piece
+	 that is not part of a PieceCatalog.
+	*/
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 Returns the index into its catalog's pieces of the piece this is
+	 a rotation of, or -1 for a piece not part of a PieceCatalog.
+	*/
+	public int getPieceId() {
+		return pieceId;
+	}
+
+	/**
+	 Returns the rotation with the given id from the same catalog
+	 as this piece -- e.g. to turn a rotation id back into a piece.
+	*/
+	public Piece getCatalogRotation(int id) {
+		return family[id];
+	}
+
+	/**
+	 Returns how many fastRotation() steps this rotation is from its
+	 root piece, or -1 for a piece not part of a PieceCatalog.
+	*/
+	public int getRotationIndex() {
+		return rotationIndex;
+	}
 	
 
 
@@ -154,6 +238,8 @@ public class Piece {
 	 same body arrays, since the points may not be
 	 in the same order in the bodies. Used internally to detect
 	 if two rotations are effectively the same.
+	 Two pieces from one catalog just compare their ids, others
+	 compare their row masks -- the same points give the same masks.
 	*/
 	public boolean equals(Object obj) {
 		// standard equals() technique 1
@@ -164,25 +250,16 @@ public class Piece {
 		if (!(obj instanceof Piece)) return false;
 		Piece other = (Piece)obj;
 
-		TPoint[] bodyOfObject = other.getBody();
-		int size = body.length;
-		if (bodyOfObject.length != size){
-			return false;
-		}
-		boolean[] ind = new boolean[size];
-		for (int i=0; i<size; ++i){
-			ind[i] = false;
-		}
-		for (int i=0; i<size; ++i){
-			for (int j=0; j<size; ++j){
-				ind[j] |= body[j].equals(bodyOfObject[i]);
-			}
+		if (family != null && family == other.family){
+			return id == other.id;
 		}
-		boolean answer = true;
-		for (int i=0; i<size; ++i){
-			answer &= ind[i];
-		}
-		return answer;
+		return body.length == other.body.length && Arrays.equals(rowMasks, other.rowMasks);
+	}
+
+
+	// Standard hashCode() to go with equals()
+	public int hashCode() {
+		return Arrays.hashCode(rowMasks);
 	}
 
 
@@ -215,22 +292,50 @@ public class Piece {
 	 (provided code)
 	*/
 	public static Piece[] getPieces() {
-		// lazy evaluation -- create static array if needed
-		if (Piece.pieces==null) {
-			// use makeFastRotations() to compute all the rotations for each piece
-			Piece.pieces = new Piece[] {
-				makeFastRotations(new Piece(STICK_STR)),
-				makeFastRotations(new Piece(L1_STR)),
-				makeFastRotations(new Piece(L2_STR)),
-				makeFastRotations(new Piece(S1_STR)),
-				makeFastRotations(new Piece(S2_STR)),
-				makeFastRotations(new Piece(SQUARE_STR)),
-				makeFastRotations(new Piece(PYRAMID_STR)),
-			};
+		// built once, thread-safely, by the standard catalog
+		return PieceCatalog.getStandard().getPieces();
+	}
+
+
+	/**
+	 Returns the rotation of the standard pieces with the given id (see getId()).
+	*/
+	public static Piece getRotation(int id) {
+		return PieceCatalog.getStandard().getRotation(id);
+	}
+
+
+	/**
+	 Returns how many distinct rotations there are over all of
+	 getPieces() -- one more than the largest id.
+	*/
+	public static int getRotationCount() {
+		return PieceCatalog.getStandard().getRotationCount();
+	}
+
+
+	/**
+	 Gives every rotation of the given root pieces its ids,
+	 and returns all the rotations in id order.
+	*/
+	static Piece[] numberRotations(Piece[] roots) {
+		List<Piece> all = new ArrayList<Piece>();
+		for (int i=0; i<roots.length; ++i){
+			Piece current = roots[i];
+			int r = 0;
+			do {
+				current.id = all.size();
+				current.pieceId = i;
+				current.rotationIndex = r++;
+				all.add(current);
+				current = current.next;
+			} while (current != roots[i]);
 		}
-		
-		
-		return Piece.pieces;
+		Piece[] family = all.toArray(new Piece[0]);
+		for (Piece rotation : family){
+			rotation.family = family;
+		}
+		return family;
 	}
 	
 
@@ -247,7 +352,7 @@ public class Piece {
 	 and Piece.equals() to detect when the rotations have gotten us back
 	 to the first piece.
 	*/
-	private static Piece makeFastRotations(Piece root) {
+	static Piece makeFastRotations(Piece root) {
 		root.next = null;
 		Piece curPiece = root;
 		while (!root.equals(curPiece.computeNextRotation())){
@@ -266,7 +371,7 @@ public class Piece {
 	 the points into a TPoint[] array.
 	 (Provided code)
 	*/
-	private static TPoint[] parsePoints(String string) {
+	static TPoint[] parsePoints(String string) {
 		List<TPoint> points = new ArrayList<TPoint>();
 		StringTokenizer tok = new StringTokenizer(string);
 		try {
@@ -0,0 +1,204 @@
+// PieceCatalog.java
+package tetris;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ An immutable set of tetris pieces with all their rotations worked out.
+ Building a catalog normalizes every shape, follows its rotations
+ until they repeat, links them for fastRotation(), numbers them
+ (see Piece.getId()) and packs their skirts and row masks -- all once,
+ at load time. After that a catalog is only read, so it can be shared
+ freely between threads.
+
+ <p>
+ Catalogs can be read from a shape-set file, one piece per line,
+ in the same x,y format as the Piece string constructor, optionally
+ named, with # comments:
+ <pre>
+ # the pentomino I and X
+ I: 0 0  0 1  0 2  0 3  0 4
+ X: 1 0  0 1  1 1  2 1  1 2
+ </pre>
+ The standard seven pieces are always available from getStandard(),
+ which is what Piece.getPieces() uses.
+*/
+public final class PieceCatalog {
+	private final Piece[] pieces;		// the first rotation of each piece
+	private final Piece[] rotations;	// every rotation, by id
+	private final String[] names;
+
+
+	/**
+	 Builds a catalog of the given shapes, each a string of x,y points
+	 like "0 0  0 1  0 2  1 0", named by the matching entry of names.
+	 Shapes that are rotations of an earlier shape are rejected.
+	*/
+	public PieceCatalog(String[] names, String[] shapes) {
+		if (names.length != shapes.length){
+			throw new RuntimeException("Need one name for each shape");
+		}
+		if (shapes.length == 0){
+			throw new RuntimeException("A catalog needs at least one piece");
+		}
+		Set<Piece> seen = new HashSet<Piece>();
+		pieces = new Piece[shapes.length];
+		for (int i=0; i<shapes.length; ++i){
+			Piece root = Piece.makeFastRotations(new Piece(normalize(names[i], Piece.parsePoints(shapes[i]))));
+			Piece current = root;
+			do {
+				if (!seen.add(current)){
+					throw new RuntimeException("Piece " + names[i] + " repeats an earlier piece");
+				}
+				current = current.fastRotation();
+			} while (current != root);
+			pieces[i] = root;
+		}
+		this.names = names.clone();
+		rotations = Piece.numberRotations(pieces);
+	}
+
+
+	/**
+	 Returns the catalog of the standard 7 tetris pieces, in the order
+	 STICK, L1, L2, S1, S2, SQUARE, PYRAMID.
+	*/
+	public static PieceCatalog getStandard() {
+		return Standard.CATALOG;
+	}
+
+	// holder class -- the standard catalog is built, once, on first use
+	private static class Standard {
+		static final PieceCatalog CATALOG = new PieceCatalog(
+			new String[] {"STICK", "L1", "L2", "S1", "S2", "SQUARE", "PYRAMID"},
+			new String[] {Piece.STICK_STR, Piece.L1_STR, Piece.L2_STR, Piece.S1_STR,
+				Piece.S2_STR, Piece.SQUARE_STR, Piece.PYRAMID_STR});
+	}
+
+
+	/**
+	 Reads a catalog from the shape-set file with the given name.
+	*/
+	public static PieceCatalog load(String fileName) throws IOException {
+		Reader in = new FileReader(fileName);
+		try {
+			return load(in);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+
+	/**
+	 Reads a catalog in the shape-set format described above.
+	 Pieces without a name are called by their line number.
+	*/
+	public static PieceCatalog load(Reader reader) throws IOException {
+		BufferedReader in = new BufferedReader(reader);
+		List<String> names = new ArrayList<String>();
+		List<String> shapes = new ArrayList<String>();
+		int lineNumber = 0;
+		String line;
+		while ((line = in.readLine()) != null) {
+			lineNumber++;
+			int comment = line.indexOf('#');
+			if (comment >= 0) line = line.substring(0, comment);
+			line = line.trim();
+			if (line.length() == 0) continue;
+
+			String name = "line " + lineNumber;
+			int colon = line.indexOf(':');
+			if (colon >= 0) {
+				name = line.substring(0, colon).trim();
+				line = line.substring(colon + 1);
+			}
+			names.add(name);
+			shapes.add(line);
+		}
+		return new PieceCatalog(names.toArray(new String[0]), shapes.toArray(new String[0]));
+	}
+
+
+	/**
+	 Returns the first rotation of each piece, in file order. As with
+	 Piece.getPieces(), the caller should not modify this array.
+	*/
+	public Piece[] getPieces() {
+		return pieces;
+	}
+
+	/**
+	 Returns the number of distinct pieces.
+	*/
+	public int getPieceCount() {
+		return pieces.length;
+	}
+
+	/**
+	 Returns the name of the piece at the given index.
+	*/
+	public String getName(int pieceId) {
+		return names[pieceId];
+	}
+
+	/**
+	 Returns the rotation with the given id.
+	*/
+	public Piece getRotation(int id) {
+		return rotations[id];
+	}
+
+	/**
+	 Returns the number of distinct rotations over all the pieces.
+	*/
+	public int getRotationCount() {
+		return rotations.length;
+	}
+
+	/**
+	 Returns the largest width or height of any rotation -- how
+	 much room a board needs for every piece to fit.
+	*/
+	public int getMaxSize() {
+		int size = 0;
+		for (Piece rotation : rotations) {
+			size = Math.max(size, Math.max(rotation.getWidth(), rotation.getHeight()));
+		}
+		return size;
+	}
+
+
+	/**
+	 * moves the points of a shape so that its lowest x and lowest y
+	 * are both 0, the way skirts and row masks expect -- before any
+	 * Piece is made of them, which could not hold negative points
+	 * */
+	private static TPoint[] normalize(String name, TPoint[] body) {
+		if (body.length == 0){
+			throw new RuntimeException("Piece " + name + " needs at least one block");
+		}
+		int minX = Integer.MAX_VALUE;
+		int minY = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE;
+		int maxY = Integer.MIN_VALUE;
+		for (TPoint point : body){
+			minX = Math.min(minX, point.x);
+			minY = Math.min(minY, point.y);
+			maxX = Math.max(maxX, point.x);
+			maxY = Math.max(maxY, point.y);
+		}
+		// rotated, the height becomes a width too, and a row mask holds at most MAX_WIDTH blocks
+		int size = Math.max(maxX - minX, maxY - minY) + 1;
+		if (size > Board.MAX_WIDTH){
+			throw new RuntimeException("Piece " + name + " is " + size + " blocks across, more than "
+					+ Board.MAX_WIDTH + " fit in a row");
+		}
+		TPoint[] moved = new TPoint[body.length];
+		for (int i=0; i<body.length; ++i){
+			moved[i] = new TPoint(body[i].x - minX, body[i].y - minY);
+		}
+		return moved;
+	}
+}
@@ -2,6 +2,7 @@ package tetris;
 
 import static org.junit.Assert.*;
 import java.util.*;
+import java.io.*;
 
 import org.junit.*;
 
@@ -71,4 +72,103 @@ public class PieceTest {
 
 		assertTrue(Arrays.equals(new int[] {1, 0}, sRotated.getSkirt()));
 	}
+
+	// The packed geometry matches the body
+	@Test
+	public void testPackedGeometry() {
+		assertTrue(Arrays.equals(new long[] {0b111, 0b010}, pyr1.getRowMasks()));
+		assertTrue(Arrays.equals(new long[] {0b011, 0b110}, s.getRowMasks()));
+		assertTrue(Arrays.equals(new long[] {0b10, 0b11, 0b10}, pyr2.getRowMasks()));
+
+		int[] coords = pyr1.getCoords();
+		TPoint[] body = pyr1.getBody();
+		assertEquals(2 * body.length, coords.length);
+		for (int i=0; i<body.length; ++i){
+			assertEquals(body[i].x, coords[2 * i]);
+			assertEquals(body[i].y, coords[2 * i + 1]);
+		}
+	}
+
+	// Every catalog rotation gets a dense id that round-trips through getRotation()
+	@Test
+	public void testRotationIds() {
+		Piece[] pieces = Piece.getPieces();
+		assertEquals(19, Piece.getRotationCount());
+		for (int id=0; id<Piece.getRotationCount(); ++id){
+			Piece rotation = Piece.getRotation(id);
+			assertEquals(id, rotation.getId());
+			Piece root = pieces[rotation.getPieceId()];
+			for (int r=rotation.getRotationIndex(); r>0; --r) root = root.fastRotation();
+			assertTrue(root == rotation);
+		}
+		assertEquals(0, pieces[Piece.SQUARE].getRotationIndex());
+		assertTrue(pieces[Piece.SQUARE].fastRotation() == pieces[Piece.SQUARE]);
+
+		// pieces made outside the catalog have no id but still compare by their points
+		assertEquals(-1, pyr1.getId());
+		assertTrue(pyr1.equals(pieces[Piece.PYRAMID]));
+		assertTrue(pieces[Piece.PYRAMID].equals(pyr1));
+		assertEquals(pyr1.hashCode(), pieces[Piece.PYRAMID].hashCode());
+		assertFalse(pieces[Piece.PYRAMID].equals(pieces[Piece.PYRAMID].fastRotation()));
+		assertTrue(pyr2.equals(pieces[Piece.PYRAMID].fastRotation()));
+		assertTrue(new Piece("1 0  0 0  0 1").equals(new Piece("0 1  0 0  1 0")));
+	}
+
+	// A catalog read from a shape-set normalizes and numbers its own rotations
+	@Test
+	public void testLoadCatalog() throws Exception {
+		PieceCatalog catalog = PieceCatalog.load(new StringReader(
+				"# two pentominoes and a moved square\n" +
+				"I: 0 0  0 1  0 2  0 3  0 4\n" +
+				"X: 1 0  0 1  1 1  2 1  1 2   # the plus\n" +
+				"\n" +
+				"3 3  3 4  4 3  4 4\n"));
+		assertEquals(3, catalog.getPieceCount());
+		assertEquals("X", catalog.getName(1));
+		assertEquals("line 5", catalog.getName(2));
+		assertEquals(2 + 1 + 1, catalog.getRotationCount());
+		assertEquals(5, catalog.getMaxSize());
+
+		Piece square = catalog.getPieces()[2];
+		assertTrue(Arrays.equals(new int[] {0, 0}, square.getSkirt()));
+		assertTrue(square.fastRotation() == square);
+		assertEquals(3, square.getId());
+		assertTrue(catalog.getRotation(1) == catalog.getPieces()[0].fastRotation());
+
+		// same ids in different catalogs are not the same piece
+		Piece stick = Piece.getPieces()[Piece.STICK];
+		assertEquals(stick.getId(), catalog.getPieces()[0].getId());
+		assertFalse(stick.equals(catalog.getPieces()[0]));
+		assertTrue(Piece.getPieces()[Piece.SQUARE].equals(square));
+	}
+
+	// A shape that is just a rotation of an earlier one is refused
+	@Test(expected = RuntimeException.class)
+	public void testCatalogRepeat() {
+		new PieceCatalog(new String[] {"S", "S rotated"},
+				new String[] {Piece.S1_STR, "1 0  1 1  0 1  0 2"});
+	}
+
+	// Shapes may use any coordinates, negative too; they are moved to 0,0 before the piece is made
+	@Test
+	public void testCatalogNegative() {
+		PieceCatalog catalog = new PieceCatalog(new String[] {"T", "L"},
+				new String[] {"-1 0  0 0  1 0  0 -1", "-5 -5  -5 -4  -5 -3  -4 -5"});
+		Piece t = catalog.getPieces()[0];
+		assertTrue(t.equals(new Piece("0 1  1 1  2 1  1 0")));
+		assertTrue(Arrays.equals(new int[] {1, 0, 1}, t.getSkirt()));
+		assertTrue(catalog.getPieces()[1].equals(new Piece("0 0  0 1  0 2  1 0")));
+	}
+
+	// A shape too big for a row mask is refused with a message, not wrapped around
+	@Test
+	public void testCatalogTooWide() {
+		try {
+			new PieceCatalog(new String[] {"long"}, new String[] {"0 0  64 0"});
+			fail("a 65 wide piece was accepted");
+		}
+		catch (RuntimeException expected) {
+			assertTrue(expected.getMessage().contains("long"));
+		}
+	}
 }
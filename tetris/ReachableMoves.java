@@ -0,0 +1,126 @@
+// ReachableMoves.java
+package tetris;
+
+import java.util.Arrays;
+
+/**
+ Generates the plays a player could actually make with the keys:
+ a breadth-first search from where GameEngine brings a new piece on
+ (centered at the top) over the positions (rotation, x, y) that
+ LEFT, RIGHT, DOWN and ROTATE lead to, rotating about the center as
+ GameEngine.tick() does. Every position the piece cannot move DOWN
+ from is a play -- including slides under overhangs and tucks into
+ notches that dropping straight down never finds, and leaving out
+ straight drops that something in the way blocks.
+
+ <p>
+ Collisions are tested with Board.canPlace(), a mask AND per row of
+ the piece, and the positions seen are kept in a bitset that is
+ reused from call to call, so a warmed-up generator allocates
+ nothing. Not thread-safe: use one per thread.
+*/
+public class ReachableMoves {
+	private Piece[] rotations = new Piece[4];
+	private long[] visited = new long[16];	// positions queued so far
+	private long[] landed = new long[16];	// positions that cannot move down
+	private int[] queue = new int[1024];
+	private int tail;
+
+	// the shape of the position numbering, (rotation * width + x) * height + y
+	private int width, height;
+
+
+	/**
+	 Fills moves with the reachable plays of the piece that do not
+	 stick up above limitHeight, in the order rotation by fastRotation()
+	 from the given one, then x, then y. Returns how many there are,
+	 0 if the piece cannot even come on. Does not change the board.
+	*/
+	public int generate(Board board, Piece piece, int limitHeight, MoveList moves) {
+		moves.clear();
+		width = board.getWidth();
+		height = board.getHeight();
+
+		int count = 0;
+		Piece current = piece;
+		do {
+			if (count == rotations.length) rotations = Arrays.copyOf(rotations, count * 2);
+			rotations[count++] = current;
+			current = current.fastRotation();
+		} while (current != piece);
+
+		int positions = count * width * height;
+		int words = (positions + 63) >>> 6;
+		if (visited.length < words) {
+			visited = new long[words];
+			landed = new long[words];
+		}
+		else {
+			Arrays.fill(visited, 0, words, 0);
+			Arrays.fill(landed, 0, words, 0);
+		}
+		if (queue.length < positions) queue = new int[positions];
+
+		// where GameEngine puts a new piece
+		int startX = (width - piece.getWidth()) / 2;
+		int startY = height - piece.getHeight();
+		tail = 0;
+		if (!board.canPlace(piece, startX, startY)) return 0;
+		enqueue(position(0, startX, startY));
+
+		for (int head=0; head<tail; ++head) {
+			int position = queue[head];
+			int y = position % height;
+			int x = (position / height) % width;
+			int r = position / (height * width);
+			Piece rotation = rotations[r];
+
+			if (board.canPlace(rotation, x, y - 1)) offer(board, r, x, y - 1);
+			else landed[position >>> 6] |= 1L << position;
+
+			offer(board, r, x - 1, y);
+			offer(board, r, x + 1, y);
+
+			int nextR = r + 1 == count ? 0 : r + 1;
+			Piece next = rotations[nextR];
+			offer(board, nextR, x + (rotation.getWidth() - next.getWidth()) / 2,
+					y + (rotation.getHeight() - next.getHeight()) / 2);
+		}
+
+		// the landed positions, in numbering order: rotation, x, y
+		for (int w=0; w<words; ++w) {
+			long bits = landed[w];
+			while (bits != 0) {
+				int position = (w << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				int y = position % height;
+				int x = (position / height) % width;
+				Piece rotation = rotations[position / (height * width)];
+				if (y + rotation.getHeight() <= limitHeight) moves.add(rotation, x, y);
+			}
+		}
+		return moves.size();
+	}
+
+
+	/**
+	 * queues the position if it is on the board, not seen before,
+	 * and the rotation fits there
+	 * */
+	private void offer(Board board, int r, int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) return;
+		int position = position(r, x, y);
+		if ((visited[position >>> 6] & (1L << position)) != 0) return;
+		if (board.canPlace(rotations[r], x, y)) enqueue(position);
+		else visited[position >>> 6] |= 1L << position;	// blocked: no need to test again
+	}
+
+	private void enqueue(int position) {
+		visited[position >>> 6] |= 1L << position;
+		queue[tail++] = position;
+	}
+
+	private int position(int r, int x, int y) {
+		return (r * width + x) * height + y;
+	}
+}
@@ -0,0 +1,94 @@
+package tetris;
+
+import static org.junit.Assert.*;
+import java.util.*;
+
+import org.junit.*;
+
+/*
+  Unit test for ReachableMoves.
+ */
+public class ReachableMovesTest {
+	private Piece[] pieces;
+	private DefaultBrain straight;
+	private MoveList drops, reachable;
+	private ReachableMoves generator;
+
+	@Before
+	public void setUp() {
+		pieces = Piece.getPieces();
+		straight = new DefaultBrain();
+		drops = new MoveList();
+		reachable = new MoveList();
+		generator = new ReachableMoves();
+	}
+
+	private static List<String> plays(MoveList moves) {
+		List<String> plays = new ArrayList<String>();
+		for (int i=0; i<moves.size(); ++i) {
+			plays.add(moves.getPiece(i).getRotationIndex() + "@" + moves.getX(i) + "," + moves.getY(i));
+		}
+		return plays;
+	}
+
+	// With nothing in the way, the reachable plays are the straight drops, in the same order
+	@Test
+	public void testEmptyBoard() {
+		Board board = new Board(10, 20);
+		for (Piece piece : pieces) {
+			straight.generateMoves(board, piece, 20, drops);
+			generator.generate(board, piece, 20, reachable);
+			assertEquals(plays(drops), plays(reachable));
+		}
+	}
+
+	// A square slides under an overhang that a straight drop lands on
+	@Test
+	public void testTuck() {
+		Board board = new Board(10, 12);
+		board.place(pieces[Piece.STICK].fastRotation(), 0, 2);	// flat, over columns 0-3
+		board.commit();
+		Piece square = pieces[Piece.SQUARE];
+		straight.generateMoves(board, square, 12, drops);
+		generator.generate(board, square, 12, reachable);
+		assertTrue(plays(reachable).contains("0@0,0"));
+		assertTrue(plays(reachable).contains("0@0,3"));
+		assertFalse(plays(drops).contains("0@0,0"));
+		assertEquals(drops.size() + 4, reachable.size());	// x 0 to 3, at least partly under the stick
+	}
+
+	// A wall up to the top keeps the piece on its side of the board
+	@Test
+	public void testBlocked() {
+		Board board = new Board(10, 12);
+		for (int y=0; y<12; y+=4) {
+			board.place(pieces[Piece.STICK], 7, y);
+			board.commit();
+		}
+		Piece square = pieces[Piece.SQUARE];
+		straight.generateMoves(board, square, 12, drops);
+		generator.generate(board, square, 12, reachable);
+		assertTrue(plays(drops).contains("0@8,0"));
+		assertEquals(6, reachable.size());
+		for (int i=0; i<reachable.size(); ++i) assertTrue(reachable.getX(i) < 6);
+
+		// nothing fits where the pieces come on
+		board.place(pieces[Piece.STICK].fastRotation(), 3, 11);
+		board.commit();
+		assertEquals(0, generator.generate(board, square, 12, reachable));
+	}
+
+	// GameEngine plays a reachable brain's moves at their own y
+	@Test
+	public void testPlayGame() {
+		DefaultBrain brain = new DefaultBrain();
+		brain.setReachable(true);
+		GameEngine engine = new GameEngine(10, 24, 4);
+		engine.setPieceLimit(300);
+		engine.startGame(new Random(23));
+		engine.getBoard().setDebug(true);	// GameEngine turns the checks off
+		engine.playGame(brain, null);
+		assertTrue(engine.getCount() > 100);
+		engine.getBoard().sanityCheck();
+	}
+}
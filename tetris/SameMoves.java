@@ -0,0 +1,45 @@
+package tetris;
+
+import static org.junit.Assert.*;
+
+/*
+  Test helper for the brains' unit tests: checks that two brains agree,
+  move by move, over a seeded game.
+ */
+class SameMoves {
+
+	private SameMoves() {
+	}
+
+	// The same play, and its score to within delta
+	static void assertSameMove(Brain.Move expected, Brain.Move actual, double delta) {
+		assertNotNull(expected);
+		assertNotNull(actual);
+		assertEquals(expected.x, actual.x);
+		assertEquals(expected.y, actual.y);
+		assertSame(expected.piece, actual.piece);
+		assertEquals(expected.score, actual.score, delta);
+	}
+
+	/*
+	 Plays the started game to its end with the expected brain's moves,
+	 asking both brains on every board, with the preview, and checking
+	 that they agree and leave the board as it was. check, if not null,
+	 runs after each move for what a test adds.
+	*/
+	static void assertSameGame(GameEngine engine, Brain expected, Brain actual, double delta, Runnable check) {
+		Brain.Move expectedMove = new Brain.Move();
+		Brain.Move actualMove = new Brain.Move();
+		while (engine.isGameOn()) {
+			Board board = engine.getBoard();
+			board.undo();
+			Piece piece = engine.getCurrentPiece();
+			String before = board.toString();
+			assertSameMove(expected.bestMove(board, piece, engine.getPreview(), 20, expectedMove),
+					actual.bestMove(board, piece, engine.getPreview(), 20, actualMove), delta);
+			assertEquals(before, board.toString());
+			if (check != null) check.run();
+			engine.playMove(expectedMove.piece, expectedMove.x, expectedMove.y);
+		}
+	}
+}
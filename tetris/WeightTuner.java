@@ -0,0 +1,499 @@
+// WeightTuner.java
+package tetris;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ Tunes the weights of a FeatureEvaluator with the cross-entropy method,
+ playing FeatureBrain games headless over all the cores.
+ Each generation draws a population of weight vectors from independent
+ normal distributions, one per feature, and plays every candidate on
+ the same seeded games (game i with new Random(seed + i), as
+ BatchSimulator does). The mean and spread of the best candidates --
+ the elite -- become the distribution of the next generation, with a
+ little extra spread that shrinks over the generations so that the
+ search does not freeze too early:
+ <pre>
+ sigma^2 = variance of the elite + max(noise - generation / 10, 0)
+ </pre>
+ A candidate's fitness is the mean number of rows it cleared.
+
+ <p>
+ After every generation the tuner writes its whole state to a
+ checkpoint file, and the best weights so far to a weights file that
+ FeatureEvaluator.load() reads. Run again with the same checkpoint, it
+ carries on where it stopped, drawing the same candidates it would
+ have drawn -- so an interrupted overnight run loses at most one
+ generation. The checkpoint holds the settings too (all but -threads,
+ which does not change the result), and a resume keeps them: options
+ left off the command line come from the checkpoint, and options that
+ differ from it stop the run rather than mix two searches in one.
+ -sigma and -start only matter to a new run.
+
+ <pre>
+ java tetris.WeightTuner -generations 50 -population 100 -games 20 -limit 5000
+ </pre>
+ Options: -generations N, -population N, -elite FRACTION, -games N,
+ -seed S, -limit PIECES (0 for no limit), -threads T, -sigma S (the
+ starting spread), -noise N, -start WEIGHT-FILE, -pieces SHAPE-FILE,
+ -out WEIGHT-FILE (tuned.weights), -checkpoint FILE (tuner.checkpoint).
+*/
+public class WeightTuner {
+	private static final int FEATURES = FeatureEvaluator.FEATURE_COUNT;
+
+	private Piece[] pieces = Piece.getPieces();
+	private int population = 100;
+	private double eliteFraction = 0.1;
+	private int games = 20;
+	private long seed = 0;
+	private int pieceLimit = 2000;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private double noise = 4;
+
+	// the state a checkpoint holds
+	private int generation;
+	private double[] mean = new double[FEATURES];
+	private double[] sigma = new double[FEATURES];
+	private double[] best = FeatureEvaluator.DEFAULT_WEIGHTS.clone();
+	private double bestFitness = Double.NEGATIVE_INFINITY;
+	private double eliteFitness = Double.NaN;
+
+	public WeightTuner() {
+		start(FeatureEvaluator.DEFAULT_WEIGHTS, 5);
+	}
+
+	public void setPieces(Piece[] pieces) {
+		this.pieces = pieces;
+	}
+
+	public void setPopulation(int population) {
+		this.population = population;
+	}
+
+	/**
+	 Sets the share of each generation, 0..1, that the next one is
+	 drawn around. There is always at least one.
+	*/
+	public void setEliteFraction(double eliteFraction) {
+		this.eliteFraction = eliteFraction;
+	}
+
+	/**
+	 Sets how many games each candidate plays.
+	*/
+	public void setGames(int games) {
+		this.games = games;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 Ends every game after this many pieces, or never for 0.
+	 Good weights play for very long, so tuning wants a limit.
+	*/
+	public void setPieceLimit(int pieceLimit) {
+		this.pieceLimit = pieceLimit;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 Sets the extra variance added in generation 0; it drops by 0.1
+	 a generation down to 0.
+	*/
+	public void setNoise(double noise) {
+		this.noise = noise;
+	}
+
+
+	/**
+	 Starts over from generation 0, drawing around the given
+	 weights with the given spread.
+	*/
+	public void start(double[] weights, double spread) {
+		generation = 0;
+		mean = weights.clone();
+		Arrays.fill(sigma, spread);
+		best = weights.clone();
+		bestFitness = Double.NEGATIVE_INFINITY;
+		eliteFitness = Double.NaN;
+	}
+
+	public int getGeneration() {
+		return generation;
+	}
+
+	public double[] getMean() {
+		return mean.clone();
+	}
+
+	public double[] getSigma() {
+		return sigma.clone();
+	}
+
+	/**
+	 Returns the weights of the fittest candidate so far.
+	*/
+	public double[] getBest() {
+		return best.clone();
+	}
+
+	public double getBestFitness() {
+		return bestFitness;
+	}
+
+	/**
+	 Returns the mean fitness of the last generation's elite.
+	*/
+	public double getEliteFitness() {
+		return eliteFitness;
+	}
+
+
+	/**
+	 Plays one generation and moves the distribution to its elite.
+	*/
+	public void step() {
+		// the candidates depend only on the seed and the generation
+		Random random = new Random(seed + 1000003L * (generation + 1));
+		double[][] candidates = new double[population][FEATURES];
+		for (double[] candidate : candidates) {
+			for (int i=0; i<FEATURES; ++i) {
+				candidate[i] = mean[i] + sigma[i] * random.nextGaussian();
+			}
+		}
+
+		double[] fitness = evaluate(candidates);
+
+		Integer[] order = new Integer[population];
+		for (int i=0; i<population; ++i) order[i] = i;
+		Arrays.sort(order, (a, b) -> Double.compare(fitness[b], fitness[a]));	// stable: ties keep their order
+		if (fitness[order[0]] > bestFitness) {
+			bestFitness = fitness[order[0]];
+			best = candidates[order[0]].clone();
+		}
+
+		int elite = Math.max(1, (int) Math.round(population * eliteFraction));
+		double extra = Math.max(noise - generation / 10.0, 0);
+		eliteFitness = 0;
+		for (int e=0; e<elite; ++e) eliteFitness += fitness[order[e]] / elite;
+		for (int i=0; i<FEATURES; ++i) {
+			double sum = 0;
+			for (int e=0; e<elite; ++e) sum += candidates[order[e]][i];
+			double m = sum / elite;
+			double variance = 0;
+			for (int e=0; e<elite; ++e) {
+				double d = candidates[order[e]][i] - m;
+				variance += d * d / elite;
+			}
+			mean[i] = m;
+			sigma[i] = Math.sqrt(variance + extra);
+		}
+		generation++;
+	}
+
+
+	/**
+	 Returns the fitness of each candidate: the mean rows it cleared
+	 over the games. Every (candidate, game) pair is a task of its own.
+	*/
+	public double[] evaluate(double[][] candidates) {
+		int[] rows = new int[candidates.length * games];
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new Games(candidates, rows, 0, rows.length));
+		}
+		finally {
+			pool.shutdown();
+		}
+		double[] fitness = new double[candidates.length];
+		for (int i=0; i<rows.length; ++i) {
+			fitness[i / games] += (double) rows[i] / games;
+		}
+		return fitness;
+	}
+
+
+	// games below this many are played by one task rather than split further
+	private static final int GAMES_PER_TASK = 2;
+
+	/**
+	 * plays the games [from, to) of the flattened candidate x game
+	 * range, splitting it in half until it is small enough
+	 * */
+	private class Games extends RecursiveAction {
+		private final double[][] candidates;
+		private final int[] rows;
+		private final int from, to;
+
+		Games(double[][] candidates, int[] rows, int from, int to) {
+			this.candidates = candidates;
+			this.rows = rows;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (to - from <= GAMES_PER_TASK) {
+				GameEngine engine = new GameEngine(JTetris.WIDTH, JTetris.HEIGHT, JTetris.TOP_SPACE);
+				engine.setPieces(pieces);
+				engine.setPieceLimit(pieceLimit);
+				Brain.Move move = new Brain.Move();
+				for (int i=from; i<to; ++i) {
+					Brain brain = new FeatureBrain(new FeatureEvaluator(candidates[i / games]));
+					engine.startGame(new Random(seed + i % games));
+					engine.playGame(brain, move);
+					rows[i] = (int) engine.getRowsCleared();
+				}
+			}
+			else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Games(candidates, rows, from, middle), new Games(candidates, rows, middle, to));
+			}
+		}
+	}
+
+
+	/**
+	 Returns the settings that decide what a run does, as save()
+	 writes them: everything but the thread count.
+	*/
+	public Properties getSettings() {
+		Properties settings = new Properties();
+		settings.setProperty("population", Integer.toString(population));
+		settings.setProperty("elite", Double.toString(eliteFraction));
+		settings.setProperty("noise", Double.toString(noise));
+		settings.setProperty("seed", Long.toString(seed));
+		settings.setProperty("games", Integer.toString(games));
+		settings.setProperty("limit", Integer.toString(pieceLimit));
+		settings.setProperty("pieces", Integer.toString(pieces.length));
+		for (int i=0; i<pieces.length; ++i) {
+			settings.setProperty("piece." + i, shape(pieces[i]));
+		}
+		return settings;
+	}
+
+	/**
+	 * the points of the piece in the Piece string format
+	 * */
+	private static String shape(Piece piece) {
+		StringBuilder shape = new StringBuilder();
+		for (TPoint point : piece.getBody()) {
+			if (shape.length() > 0) shape.append("  ");
+			shape.append(point.x).append(' ').append(point.y);
+		}
+		return shape.toString();
+	}
+
+
+	/**
+	 Writes the state to the checkpoint file, going through a
+	 temporary file so that a crash mid-write leaves the old one.
+	 The settings go along, so that the run goes on the same way
+	 when it is resumed.
+	*/
+	public void save(File file) throws IOException {
+		Properties state = getSettings();
+		state.setProperty("generation", Integer.toString(generation));
+		state.setProperty("bestFitness", Double.toString(bestFitness));
+		state.setProperty("eliteFitness", Double.toString(eliteFitness));
+		for (int i=0; i<FEATURES; ++i) {
+			String name = FeatureEvaluator.NAMES[i];
+			state.setProperty("mean." + name, Double.toString(mean[i]));
+			state.setProperty("sigma." + name, Double.toString(sigma[i]));
+			state.setProperty("best." + name, Double.toString(best[i]));
+		}
+		store(state, "WeightTuner checkpoint", file);
+	}
+
+
+	/**
+	 Restores the state and settings saved by save(). The pieces stay
+	 the same objects if they have the shapes saved, else they come
+	 from a new PieceCatalog of those shapes.
+	*/
+	public void load(File file) throws IOException {
+		Properties state = new Properties();
+		Reader in = new FileReader(file);
+		try {
+			state.load(in);
+		}
+		finally {
+			in.close();
+		}
+		try {
+			generation = Integer.parseInt(state.getProperty("generation"));
+			population = Integer.parseInt(state.getProperty("population"));
+			eliteFraction = Double.parseDouble(state.getProperty("elite"));
+			noise = Double.parseDouble(state.getProperty("noise"));
+			seed = Long.parseLong(state.getProperty("seed"));
+			games = Integer.parseInt(state.getProperty("games"));
+			pieceLimit = Integer.parseInt(state.getProperty("limit"));
+			String[] shapes = new String[Integer.parseInt(state.getProperty("pieces"))];
+			String[] names = new String[shapes.length];
+			boolean same = shapes.length == pieces.length;
+			for (int i=0; i<shapes.length; ++i) {
+				shapes[i] = state.getProperty("piece." + i);
+				names[i] = "piece " + i;
+				same = same && shapes[i].equals(shape(pieces[i]));
+			}
+			if (!same) pieces = new PieceCatalog(names, shapes).getPieces();
+			bestFitness = Double.parseDouble(state.getProperty("bestFitness"));
+			eliteFitness = Double.parseDouble(state.getProperty("eliteFitness"));
+			for (int i=0; i<FEATURES; ++i) {
+				String name = FeatureEvaluator.NAMES[i];
+				mean[i] = Double.parseDouble(state.getProperty("mean." + name));
+				sigma[i] = Double.parseDouble(state.getProperty("sigma." + name));
+				best[i] = Double.parseDouble(state.getProperty("best." + name));
+			}
+		}
+		catch (RuntimeException e) {	// a missing key, a bad number or a bad shape
+			throw new IOException("Bad checkpoint " + file, e);
+		}
+	}
+
+
+	/**
+	 Writes the best weights so far, for FeatureEvaluator.load().
+	*/
+	public void saveBest(File file) throws IOException {
+		store(new FeatureEvaluator(best).toProperties(),
+				"FeatureEvaluator weights, mean rows " + bestFitness, file);
+	}
+
+
+	private static void store(Properties properties, String comment, File file) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		Writer out = new FileWriter(temp);
+		try {
+			properties.store(out, comment);
+		}
+		finally {
+			out.close();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+
+	/**
+	 Plays generations until the given one is done, saving the
+	 checkpoint and the best weights after each, and logging a line
+	 per generation to log if it is not null.
+	*/
+	public void run(int generations, File checkpoint, File out, PrintStream log) throws IOException {
+		while (generation < generations) {
+			long start = System.nanoTime();
+			step();
+			save(checkpoint);
+			saveBest(out);
+			if (log != null) {
+				log.printf("generation %d  elite %.1f  best %.1f  %.1f s%n", generation,
+						eliteFitness, bestFitness, (System.nanoTime() - start) / 1e9);
+				log.println("  mean  " + format(mean));
+				log.println("  sigma " + format(sigma));
+			}
+		}
+	}
+
+	private static String format(double[] values) {
+		StringBuilder buff = new StringBuilder();
+		for (int i=0; i<values.length; ++i) {
+			if (i > 0) buff.append(' ');
+			buff.append(String.format("%s=%.3f", FeatureEvaluator.NAMES[i], values[i]));
+		}
+		return buff.toString();
+	}
+
+
+	public static void main(String[] args) throws IOException {
+		Map<String, String> options = new LinkedHashMap<String, String>();
+		for (int i=0; i<args.length; i+=2) {
+			String option = args[i];
+			if (i + 1 == args.length) {
+				System.err.println("Option " + option + " needs a value");
+				return;
+			}
+			options.put(option, args[i + 1]);
+		}
+
+		WeightTuner tuner = new WeightTuner();
+		int generations = 50;
+		double spread = 5;
+		String start = null;
+		File out = new File("tuned.weights");
+		File checkpoint = new File("tuner.checkpoint");
+		for (Map.Entry<String, String> entry : options.entrySet()) {
+			String option = entry.getKey();
+			String value = entry.getValue();
+			try {
+				if (option.equals("-generations")) generations = Integer.parseInt(value);
+				else if (option.equals("-sigma")) spread = Double.parseDouble(value);
+				else if (option.equals("-start")) start = value;
+				else if (option.equals("-out")) out = new File(value);
+				else if (option.equals("-checkpoint")) checkpoint = new File(value);
+				else if (!configure(tuner, option, value)) {
+					System.err.println("Unknown option " + option);
+					return;
+				}
+			}
+			catch (RuntimeException e) {	// a bad number, or a bad shape file
+				System.err.println("Bad value " + value + " for " + option + ": " + e.getMessage());
+				return;
+			}
+		}
+
+		if (checkpoint.exists()) {
+			tuner.load(checkpoint);
+			// the options given must agree with the settings the run was started with
+			Properties saved = tuner.getSettings();
+			for (Map.Entry<String, String> entry : options.entrySet()) {
+				configure(tuner, entry.getKey(), entry.getValue());
+			}
+			Properties given = tuner.getSettings();
+			if (!given.equals(saved)) {
+				Set<String> changed = new TreeSet<String>();
+				for (String key : saved.stringPropertyNames()) {
+					if (!saved.getProperty(key).equals(given.getProperty(key))) changed.add(key);
+				}
+				for (String key : given.stringPropertyNames()) {
+					if (!saved.containsKey(key)) changed.add(key);
+				}
+				System.err.println("The options change " + changed + " from " + checkpoint
+						+ "; leave them out to resume, or use a new checkpoint");
+				return;
+			}
+			System.out.println("Resuming " + checkpoint + " after generation " + tuner.getGeneration());
+		}
+		else {
+			double[] weights = start == null ? FeatureEvaluator.DEFAULT_WEIGHTS
+					: FeatureEvaluator.load(start).getWeights();
+			tuner.start(weights, spread);
+		}
+		tuner.run(generations, checkpoint, out, System.out);
+	}
+
+
+	/**
+	 * applies a command line option that sets up the tuner;
+	 * returns false if it is not one of those
+	 * */
+	private static boolean configure(WeightTuner tuner, String option, String value) throws IOException {
+		if (option.equals("-population")) tuner.setPopulation(Integer.parseInt(value));
+		else if (option.equals("-elite")) tuner.setEliteFraction(Double.parseDouble(value));
+		else if (option.equals("-games")) tuner.setGames(Integer.parseInt(value));
+		else if (option.equals("-seed")) tuner.setSeed(Long.parseLong(value));
+		else if (option.equals("-limit")) tuner.setPieceLimit(Integer.parseInt(value));
+		else if (option.equals("-threads")) tuner.setThreads(Integer.parseInt(value));
+		else if (option.equals("-noise")) tuner.setNoise(Double.parseDouble(value));
+		else if (option.equals("-pieces")) tuner.setPieces(PieceCatalog.load(value).getPieces());
+		else return false;
+		return true;
+	}
+}
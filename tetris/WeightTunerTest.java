@@ -0,0 +1,95 @@
+package tetris;
+
+import static org.junit.Assert.*;
+import java.io.*;
+
+import org.junit.*;
+
+/*
+  Unit test for WeightTuner -- runs must repeat, and resume exactly.
+ */
+public class WeightTunerTest {
+
+	private WeightTuner tuner(int threads) {
+		WeightTuner tuner = new WeightTuner();
+		tuner.setPopulation(6);
+		tuner.setGames(2);
+		tuner.setPieceLimit(60);
+		tuner.setSeed(3);
+		tuner.setThreads(threads);
+		return tuner;
+	}
+
+	// The candidates and their games are seeded, so threads change nothing
+	@Test
+	public void testSameOnAnyThreads() {
+		WeightTuner one = tuner(1);
+		WeightTuner four = tuner(4);
+		one.step();
+		four.step();
+		assertEquals(1, one.getGeneration());
+		assertArrayEquals(one.getMean(), four.getMean(), 0);
+		assertArrayEquals(one.getSigma(), four.getSigma(), 0);
+		assertArrayEquals(one.getBest(), four.getBest(), 0);
+		assertEquals(one.getBestFitness(), four.getBestFitness(), 0);
+		assertTrue(one.getBestFitness() >= one.getEliteFitness());
+	}
+
+	// Stopping after a generation and loading the checkpoint ends up where a straight run does
+	@Test
+	public void testResume() throws IOException {
+		File checkpoint = File.createTempFile("tuner", ".checkpoint");
+		File out = File.createTempFile("tuner", ".weights");
+		try {
+			WeightTuner straight = tuner(2);
+			straight.run(2, checkpoint, out, null);
+
+			WeightTuner first = tuner(2);
+			first.run(1, checkpoint, out, null);
+			WeightTuner resumed = new WeightTuner();	// the settings come from the checkpoint
+			resumed.load(checkpoint);
+			assertEquals(1, resumed.getGeneration());
+			resumed.run(2, checkpoint, out, null);
+
+			assertArrayEquals(straight.getMean(), resumed.getMean(), 0);
+			assertArrayEquals(straight.getSigma(), resumed.getSigma(), 0);
+			assertArrayEquals(straight.getBest(), resumed.getBest(), 0);
+			assertArrayEquals(resumed.getBest(), FeatureEvaluator.load(out.getPath()).getWeights(), 0);
+		}
+		finally {
+			checkpoint.delete();
+			out.delete();
+		}
+	}
+
+	// Every setting but the threads goes through the checkpoint, pieces included
+	@Test
+	public void testSettingsSaved() throws IOException {
+		File checkpoint = File.createTempFile("tuner", ".checkpoint");
+		try {
+			WeightTuner tuner = tuner(3);
+			tuner.setEliteFraction(0.25);
+			tuner.setNoise(1.5);
+			Piece[] pieces = new PieceCatalog(new String[] {"I", "X"},
+					new String[] {"0 0  0 1  0 2  0 3  0 4", "1 0  0 1  1 1  2 1  1 2"}).getPieces();
+			tuner.setPieces(pieces);
+			tuner.save(checkpoint);
+
+			WeightTuner loaded = new WeightTuner();
+			loaded.load(checkpoint);
+			assertEquals(tuner.getSettings(), loaded.getSettings());
+			assertEquals("0.25", loaded.getSettings().getProperty("elite"));
+			assertEquals("2", loaded.getSettings().getProperty("pieces"));
+
+			// loading over the custom pieces brings the standard ones back
+			WeightTuner standard = tuner(3);
+			standard.save(checkpoint);
+			loaded.load(checkpoint);
+			assertEquals(standard.getSettings(), loaded.getSettings());
+			assertEquals(Piece.getPieces().length, Integer.parseInt(loaded.getSettings().getProperty("pieces")));
+		}
+		finally {
+			checkpoint.delete();
+		}
+	}
+}